@@ -1,5 +1,6 @@
 package amazons;
 
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -11,7 +12,7 @@ import java.util.List;
  * @author Sasha Manghise
  */
 
-class AI extends Player {
+class AI extends Player implements Ponderer, MoveChooser {
 
     /**
      * A position magnitude indicating a win (for white if positive, black
@@ -29,34 +30,300 @@ class AI extends Player {
      */
     private int startMax = 0;
 
+    /**
+     * Number of empty squares at or below which we try to prove a win
+     * before searching.
+     */
+    private static final int PROOF_EMPTY_LIMIT = 40;
+
+    /**
+     * Log2 of the number of entries in the proof search's table.
+     */
+    private static final int PROOF_TABLE_BITS = 19;
+
+    /**
+     * Maximum nodes examined by each attempt to prove a win.
+     */
+    private static final long PROOF_NODE_BUDGET = 50000;
+
+    /**
+     * Interval, in milliseconds, at which to repeat a request to stop
+     * pondering until it takes effect.
+     */
+    private static final long PONDER_POLL = 10;
+
+    /**
+     * Value of _deadline when there is none.
+     */
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    /**
+     * Number of nodes searched between checks for a request to stop or
+     * a passed deadline.  A power of 2.
+     */
+    static final int STOP_CHECK_INTERVAL = 2048;
+
+    /**
+     * Number of static evaluations per sampled EvalEvent.
+     */
+    static final int EVAL_EVENT_INTERVAL = 1024;
+
     /**
      * A new AI with no piece or controller (intended to produce
      * a template).
      */
     AI() {
-        this(null, null);
+        this(null, null, null, null);
+    }
+
+    /**
+     * A new AI with no piece or controller (intended to produce
+     * a template) that plays from opening book BOOK and remembers
+     * its searches in CACHE, each if not null.
+     */
+    AI(OpeningBook book, AnalysisCache cache) {
+        this(null, null, book, cache);
     }
 
     /**
      * A new AI playing PIECE under control of CONTROLLER.
      */
     AI(Piece piece, Controller controller) {
+        this(piece, controller, null, null);
+    }
+
+    /**
+     * A new AI playing PIECE under control of CONTROLLER, using
+     * opening book BOOK and analysis cache CACHE, each if not null.
+     */
+    AI(Piece piece, Controller controller, OpeningBook book,
+       AnalysisCache cache) {
         super(piece, controller);
+        _book = book;
+        _cache = cache;
     }
 
     @Override
     Player create(Piece piece, Controller controller) {
-        return new AI(piece, controller);
+        AI result = new AI(piece, controller, _book, _cache);
+        result.reportStatistics(_statsNotes, _statsDump, _statsJson);
+        result.setWeights(_evaluation.weights());
+        result.setMoveTime(_moveMillis);
+        return result;
     }
 
     @Override
     String myMove() {
+        Move move = chooseMove();
+        return move == null ? null : move.toString();
+    }
+
+    @Override
+    public Move chooseMove() {
+        MoveDecisionEvent event = new MoveDecisionEvent();
+        event.begin();
+        _stats.reset();
+        setDeadline(_moveMillis > 0
+                    ? System.nanoTime() + _moveMillis * 1_000_000
+                    : NO_DEADLINE);
         Move move = findMove();
+        if (event.shouldCommit()) {
+            event.side = myPiece().toName();
+            event.move = move == null ? null : move.toString();
+            event.source = _moveSource;
+            event.nodes = _stats.nodes();
+            event.commit();
+        }
+        reportStatistics(move);
         if (move != null) {
             _controller.reportMove(move);
-            return move.toString();
         }
-        return null;
+        return move;
+    }
+
+    /**
+     * Ponder only on the proof search: in the late middlegame, try to
+     * prove that the opponent is lost in POSITION, so that once the
+     * opponent moves, the table already holds proofs of our wins.
+     */
+    @Override
+    public void startPondering(Position position) {
+        stopPondering();
+        if (position.emptyCount() > PROOF_EMPTY_LIMIT) {
+            return;
+        }
+        ProofSearch proof = proofSearch();
+        proof.resetStop();
+        _ponderer = new Thread(() -> {
+            int result = ProofSearch.UNKNOWN;
+            while (!_stopPondering && result == ProofSearch.UNKNOWN) {
+                result = proof.prove(position);
+            }
+        });
+        _stopPondering = false;
+        _ponderer.setDaemon(true);
+        _ponderer.start();
+    }
+
+    @Override
+    public void stopPondering() {
+        if (_ponderer == null) {
+            return;
+        }
+        _stopPondering = true;
+        try {
+            while (_ponderer.isAlive()) {
+                _proof.stop();
+                _ponderer.join(PONDER_POLL);
+            }
+        } catch (InterruptedException excp) {
+            throw new IllegalStateException("interrupted");
+        }
+        _ponderer = null;
+    }
+
+    /**
+     * Return the best move found by a search of BOARD (normally a copy
+     * of my board) to exactly DEPTH plies, without consulting my book,
+     * cache, or proof search, or null if there is no move.
+     */
+    Move findMove(Board board, int depth) {
+        _lastFoundMove = null;
+        _aborted = false;
+        startMax = depth;
+        findMove(board, depth, true, 1, -INFTY, INFTY);
+        return _lastFoundMove;
+    }
+
+    /**
+     * Search BOARD by iterative deepening to at most MAXDEPTH plies,
+     * passing the result of each completed iteration to LISTENER, and
+     * return the best move of the deepest completed iteration, or null
+     * if there is no move.  The search also ends, within
+     * STOP_CHECK_INTERVAL nodes, if stopSearch is called or the deadline
+     * set by setDeadline passes; the unfinished iteration is then
+     * discarded, unless it is the first, in which case the best move it
+     * has found so far is returned.  Unlike chooseMove, this consults
+     * neither book, cache, nor proof search, so that every iteration is
+     * reported.  BOARD is left as it was.
+     */
+    Move analyze(Board board, int maxDepth, SearchListener listener) {
+        _stats.reset();
+        _aborted = false;
+        Board b = new Board(board);
+        Move best = null;
+        long start = System.nanoTime();
+        for (startMax = 1; startMax <= maxDepth && !_aborted;
+             startMax += 1) {
+            long iterationStart = System.nanoTime();
+            _lastFoundMove = null;
+            int value = findMove(b, startMax, true, 1, -INFTY, INFTY);
+            if (_aborted) {
+                if (best == null) {
+                    best = _lastFoundMove;
+                }
+                break;
+            } else if (_lastFoundMove == null) {
+                break;
+            }
+            best = _lastFoundMove;
+            long now = System.nanoTime();
+            _stats.iteration(startMax, now - iterationStart);
+            listener.iteration(startMax, value, _stats.nodes(), now - start,
+                               best);
+        }
+        return best;
+    }
+
+    /**
+     * Clear any request to stop and any deadline, in preparation for a
+     * new search by analyze or for chooseMove.
+     */
+    void resetSearch() {
+        _stopSearch = false;
+        _deadline = NO_DEADLINE;
+        ProofSearch proof = _proof;
+        if (proof != null) {
+            proof.resetStop();
+        }
+    }
+
+    /**
+     * End the current or next search (by analyze, or for chooseMove) as
+     * soon as possible.  May be called from any thread.
+     */
+    void stopSearch() {
+        _stopSearch = true;
+        ProofSearch proof = _proof;
+        if (proof != null) {
+            proof.stop();
+        }
+    }
+
+    @Override
+    public void stopChoosing() {
+        stopSearch();
+    }
+
+    @Override
+    public void resetChoosing() {
+        resetSearch();
+    }
+
+    /**
+     * End the current or next search (by analyze, or for chooseMove)
+     * once System.nanoTime() reaches DEADLINE.  May be called from any
+     * thread.
+     */
+    void setDeadline(long deadline) {
+        _deadline = deadline;
+    }
+
+    /**
+     * Limit each of my searches for chooseMove to MILLIS milliseconds,
+     * if positive, after which I choose the best move of the deepest
+     * completed iteration.  Applies to AIs created from me as a
+     * template.
+     */
+    void setMoveTime(long millis) {
+        _moveMillis = millis;
+    }
+
+    /**
+     * Return true iff the current search is to end.
+     */
+    private boolean searchStopped() {
+        long deadline = _deadline;
+        return _stopSearch
+            || (deadline != NO_DEADLINE && System.nanoTime() - deadline >= 0);
+    }
+
+    /**
+     * Return the statistics of my searches.  They are reset at the start
+     * of each move.
+     */
+    SearchStats statistics() {
+        return _stats;
+    }
+
+    /**
+     * Report the statistics of each of my searches through my controller
+     * iff NOTES, and write them to DUMP, if it is not null, as JSON
+     * objects, one per line, if JSON, and otherwise as rows of comma-
+     * separated values.  Applies to AIs created from me as a template.
+     */
+    void reportStatistics(boolean notes, PrintStream dump, boolean json) {
+        _statsNotes = notes;
+        _statsDump = dump;
+        _statsJson = json;
+    }
+
+    /**
+     * Evaluate positions with the feature weights WEIGHTS (indexed as
+     * for Evaluation).  Applies to AIs created from me as a template.
+     */
+    void setWeights(double[] weights) {
+        _evaluation = new Evaluation(weights);
     }
 
     /**
@@ -64,11 +331,150 @@ class AI extends Player {
      * is a move.
      */
     private Move findMove() {
+        Position position = new Position(board());
+        Move booked = findBookMove(position);
+        if (booked != null) {
+            _moveSource = "book";
+            return booked;
+        }
+        int depth = maxDepth(board());
+        Move cached = findCachedMove(position, depth);
+        if (cached != null) {
+            _moveSource = "cache";
+            return cached;
+        }
+        int proven = findProvenMove(position);
+        if (proven >= 0) {
+            _moveSource = "proof";
+            remember(position, AnalysisCache.PROVEN, WINNING_VALUE, proven);
+            return Position.toMove(proven);
+        }
         Board b = new Board(board());
-        _lastFoundMove = null;
-        startMax = maxDepth(b);
-        findMove(b, startMax, true, 1, -INFTY, INFTY);
-        return _lastFoundMove;
+        Move best = null;
+        int value = 0, completed = 0;
+        _moveSource = "search";
+        _aborted = false;
+        for (startMax = 1; startMax <= depth; startMax += 1) {
+            SearchIterationEvent event = new SearchIterationEvent();
+            event.begin();
+            long start = System.nanoTime(), before = _stats.nodes();
+            _lastFoundMove = null;
+            int iterationValue =
+                findMove(b, startMax, true, 1, -INFTY, INFTY);
+            if (_aborted) {
+                if (best == null) {
+                    best = _lastFoundMove;
+                }
+                break;
+            }
+            value = iterationValue;
+            best = _lastFoundMove;
+            completed = startMax;
+            _stats.iteration(startMax, System.nanoTime() - start);
+            if (event.shouldCommit()) {
+                event.depth = startMax;
+                event.score = value;
+                event.nodes = _stats.nodes() - before;
+                event.move = best == null ? null : best.toString();
+                event.commit();
+            }
+        }
+        startMax = depth;
+        if (best != null && completed > 0) {
+            remember(position, completed, value, Position.pack(best));
+        }
+        return best;
+    }
+
+    /**
+     * Report the statistics of the search that found MOVE as requested
+     * by reportStatistics.
+     */
+    private void reportStatistics(Move move) {
+        if (_statsNotes) {
+            _controller.reportNote("%s", _stats.summary());
+        }
+        if (_statsDump != null) {
+            _statsDump.println(_statsJson ? _stats.json(move)
+                               : _stats.csv(move));
+            _statsDump.flush();
+        }
+    }
+
+    /**
+     * Return a move for POSITION that my analysis cache records from a
+     * search of at least DEPTH plies (or a proof), or null if there is
+     * none.  As for book moves, the move is checked before it is used.
+     */
+    private Move findCachedMove(Position position, int depth) {
+        if (_cache == null) {
+            return null;
+        }
+        int packed = _cache.move(position, depth);
+        _stats.probe(packed >= 0);
+        if (packed < 0) {
+            return null;
+        }
+        Move move = Position.toMove(packed);
+        return board().isLegal(move) ? move : null;
+    }
+
+    /**
+     * Record in my analysis cache, if any, that a search of POSITION to
+     * DEPTH found packed MOVE with value VALUE.
+     */
+    private void remember(Position position, int depth, int value,
+                          int move) {
+        if (_cache != null) {
+            _cache.store(position, depth, value, move);
+        }
+    }
+
+    /**
+     * Return the move my opening book gives for POSITION, or null if
+     * there is none.  A key collision could give an illegal move, so the
+     * move is checked before it is used.
+     */
+    private Move findBookMove(Position position) {
+        if (_book == null) {
+            return null;
+        }
+        int packed = _book.move(position);
+        if (packed < 0) {
+            return null;
+        }
+        Move move = Position.toMove(packed);
+        return board().isLegal(move) ? move : null;
+    }
+
+    /**
+     * Return a packed move from POSITION along a proven win, or -1 if
+     * none is known.  Once a win has been proven, the rest of its proof
+     * is in _proof's table, and we follow it without searching again.
+     * Otherwise, in the late middlegame, we try to prove a win within
+     * a fixed node budget.
+     */
+    private int findProvenMove(Position position) {
+        proofSearch();
+        int move = _proof.winningMove(position);
+        _stats.probe(move >= 0);
+        if (move < 0 && position.emptyCount() <= PROOF_EMPTY_LIMIT
+            && !searchStopped()
+            && _proof.result(position) == ProofSearch.UNKNOWN
+            && _proof.prove(position) == ProofSearch.WIN) {
+            move = _proof.winningMove(position);
+        }
+        return move;
+    }
+
+    /**
+     * Return my proof search, creating it if needed.
+     */
+    private ProofSearch proofSearch() {
+        if (_proof == null) {
+            _proof = new ProofSearch(PROOF_TABLE_BITS, PROOF_NODE_BUDGET);
+        }
+        return _proof;
     }
 
     /**
@@ -83,16 +489,28 @@ class AI extends Player {
      * should have maximal value or have value > BETA if SENSE==1,
      * and minimal value or value < ALPHA if SENSE==-1. Searches up to
      * DEPTH levels.  Searching at level 0 simply returns a static estimate
-     * of the board value and does not set _lastMoveFound.
+     * of the board value and does not set _lastMoveFound.  Every
+     * STOP_CHECK_INTERVAL nodes, checks whether the search is to end;
+     * if so, sets _aborted and unwinds, undoing its moves, and the
+     * values returned are meaningless.
      */
     private int findMove(Board board, int depth, boolean saveMove, int sense,
                          int alpha, int beta) {
-
+        _stats.node(startMax - depth);
+        _searchNodes += 1;
+        if ((_searchNodes & (STOP_CHECK_INTERVAL - 1)) == 0
+            && searchStopped()) {
+            _aborted = true;
+        }
+        if (_aborted) {
+            return 0;
+        }
         if (depth == 0 || board.winner() != null) {
             return staticScore(board);
         }
         int bestVal = INFTY * -sense;
         int tempVal = 0;
+        int tried = 0;
 
         board.findAllQueens(Piece.WHITE);
         board.findAllQueens(Piece.BLACK);
@@ -104,12 +522,19 @@ class AI extends Player {
             if (move == null) {
                 break;
             }
+            tried += 1;
             board.makeMove(move);
             tempVal = findMove(board, depth - 1, false, -sense, alpha, beta);
+            if (_aborted) {
+                board.undo();
+                return bestVal;
+            }
 
             if (tempVal > bestVal) {
                 bestVal = tempVal;
-                _lastFoundMove = move;
+                if (saveMove) {
+                    _lastFoundMove = move;
+                }
             }
 
             board.undo();
@@ -122,6 +547,7 @@ class AI extends Player {
             }
 
             if (alpha >= beta) {
+                _stats.cutoff(tried == 1);
                 break;
             }
         }
@@ -141,78 +567,92 @@ class AI extends Player {
         return 2;
     }
     /**
-     * Return a heuristic value for BOARD.
+     * Return a heuristic value for BOARD, from the point of view of the
+     * side to move, as given by my Evaluation.
      */
-    private int staticScore(Board board) {
-        Square wQueen;
-        Square bQueen;
-
-        int scoreWhite = 0;
-        int scoreBlack = 0;
-        int score = 0;
-
+    int staticScore(Board board) {
         long startTime = System.nanoTime();
-
-        List<Integer> white = new ArrayList<Integer>();
-        List<Integer> black = new ArrayList<Integer>();
-
-        for (int cycle = 0; cycle < board.getWhiteQueens().size(); cycle++) {
-            wQueen = board().getWhiteQueens().get(cycle);
-            bQueen = board().getBlackQueens().get(cycle);
-
-            for (int index = 0; index < Board.SIZE * Board.SIZE; index++) {
-                Square sq = Square.sq(index);
-                white.add(index, distance(wQueen, sq));
-                black.add(index, distance(bQueen, sq));
-            }
-
-            for (int index = 0; index < Board.SIZE * Board.SIZE; index++) {
-                if (black.get(index) < white.get(index)) {
-                    scoreWhite++;
-                } else if (black.get(index) > white.get(index)) {
-                    scoreBlack++;
-                }
-            }
+        EvalEvent event = null;
+        _evaluations += 1;
+        if (_evaluations % EVAL_EVENT_INTERVAL == 0) {
+            event = new EvalEvent();
+            event.begin();
         }
 
+        _evaluated.load(board);
+        int score = _evaluation.score(_evaluated);
+
         long endTime = System.nanoTime();
-        evaluationTime = endTime - startTime;
-        evaluated++;
+        _stats.evaluation(endTime - startTime);
 
-        if (board.turn().equals(Piece.WHITE)) {
-            if (scoreWhite > scoreBlack) {
-                score = scoreWhite;
-            }
-        }
-        if (board.turn().equals(Piece.BLACK)) {
-            score = scoreBlack;
+        if (event != null && event.shouldCommit()) {
+            event.score = score;
+            event.commit();
         }
         return score;
     }
 
     /**
-     * Distance calculator.
-     * @param from fromsquare
-     * @param to tosquare
-     * @return int
+     * List of all moves generated by LegalMovesIterator.
      */
-    public static int distance(Square from, Square to) {
+    private List<Move> listofMoves = new ArrayList<Move>();
 
-        int dx = Math.abs(from.col() - to.col());
-        int dy = Math.abs(from.row() - from.row());
-        return (int) Math.sqrt((dx * dx) + (dy * dy));
-    }
+    /** Statistics of my searches. */
+    private final SearchStats _stats = new SearchStats();
 
+    /** How the last move I chose was found. */
+    private String _moveSource;
 
-    /**
-     * List of all moves generated by LegalMovesIterator.
-     */
-    private List<Move> listofMoves = new ArrayList<Move>();
+    /** Number of static evaluations I have made, for sampling
+     *  EvalEvents. */
+    private long _evaluations;
+
+    /** My static evaluation. */
+    private Evaluation _evaluation = new Evaluation();
+
+    /** The position being statically evaluated. */
+    private final Position _evaluated = new Position();
+
+    /** True iff I report my search statistics as notes. */
+    private boolean _statsNotes;
+
+    /** Stream to which I write my search statistics, or null. */
+    private PrintStream _statsDump;
+
+    /** True iff I write my search statistics as JSON rather than CSV. */
+    private boolean _statsJson;
+
+    /** Opening book, or null if none. */
+    private final OpeningBook _book;
+
+    /** Analysis cache, or null if none. */
+    private final AnalysisCache _cache;
+
+    /** Proof-number search used to find and follow forced wins, or null
+     *  if not yet needed. */
+    private volatile ProofSearch _proof;
+
+    /** The thread pondering on the opponent's time, or null if none. */
+    private Thread _ponderer;
+
+    /** True when pondering is to stop. */
+    private volatile boolean _stopPondering;
+
+    /** True when the current search is to stop. */
+    private volatile boolean _stopSearch;
+
+    /** Time, from System.nanoTime, at which searches are to stop, or
+     *  NO_DEADLINE. */
+    private volatile long _deadline = NO_DEADLINE;
+
+    /** True iff the current search has been cut short. */
+    private boolean _aborted;
 
-    /** Evaluation time. */
-    private long evaluationTime = 0;
+    /** Number of nodes I have searched, for timing checks to stop. */
+    private long _searchNodes;
 
-    /** Evaluated. */
-    private int evaluated = 0;
+    /** Time limit of each search for chooseMove, in milliseconds, or 0
+     *  if none. */
+    private long _moveMillis;
 
 }
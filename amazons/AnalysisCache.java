@@ -0,0 +1,408 @@
+package amazons;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** A record of search results that persists from one run of the program
+ *  to the next.  Each result is a RECORD_SIZE-byte record (KEY, MOVE,
+ *  DEPTH, SCORE), where KEY is the canonical hash key of a Position (see
+ *  Position.canonicalHash), MOVE is the packed best move found for it, as
+ *  made in its canonical image, DEPTH is the depth of the search that
+ *  found it (or PROVEN for a proven win), and SCORE is its value.  All
+ *  are big-endian.
+ *
+ *  A cache named NAME consists of two files: NAME itself, an index of
+ *  records sorted by key, which is mapped into memory and searched in
+ *  place, and NAME.log, to which new records are appended.  When a cache
+ *  is opened, a background thread sorts the log and merges it with the
+ *  index as both are read in order, keeping the deepest result for each
+ *  key, and maps the result; until it finishes, lookups simply miss.
+ *  Only the log is ever held in memory, and the index is mapped in
+ *  segments, so that it may grow beyond what one mapping can hold.
+ *  Records stored afterward are kept in memory and appended to the log
+ *  by the same thread, as many at a time as have accumulated, so storing
+ *  a result never waits for the disk.
+ *  The log is locked while it is written or merged, and the index is
+ *  only ever replaced whole, so several processes may share one cache.
+ *  @author Sasha Manghise
+ */
+final class AnalysisCache {
+
+    /** Size of a record in bytes. */
+    static final int RECORD_SIZE = 20;
+
+    /** Depth recorded for a proven win. */
+    static final int PROVEN = Integer.MAX_VALUE;
+
+    /** A cache kept in the files INDEX and INDEX.log, which need not
+     *  exist yet. */
+    AnalysisCache(Path index) {
+        _indexPath = index;
+        _logPath = Paths.get(index + ".log");
+        _writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "analysis cache");
+            thread.setDaemon(true);
+            return thread;
+        });
+        _writer.execute(this::load);
+    }
+
+    /** Return a packed move for POSITION found by a search of at least
+     *  DEPTH plies, or -1 if none is recorded. */
+    int move(Position position, int depth) {
+        int t = position.canonicalSymmetry();
+        int[] entry = find(position.hash(t));
+        if (entry == null || entry[DEPTH] < depth) {
+            return -1;
+        }
+        return Symmetry.move(Symmetry.inverse(t), entry[MOVE]);
+    }
+
+    /** Record that a search of POSITION to DEPTH plies found packed move
+     *  MOVE, with value SCORE, unless a deeper result is recorded. */
+    void store(Position position, int depth, int score, int move) {
+        int t = position.canonicalSymmetry();
+        long key = position.hash(t);
+        int[] entry = find(key);
+        if (entry != null && entry[DEPTH] >= depth) {
+            return;
+        }
+        int[] record = new int[3];
+        record[MOVE] = Symmetry.move(t, move);
+        record[DEPTH] = depth;
+        record[SCORE] = score;
+        _recent.put(key, record);
+        _pending.add(new long[] { key, record[MOVE], record[DEPTH],
+                                  record[SCORE] });
+        if (_appendScheduled.compareAndSet(false, true)) {
+            _writer.execute(this::appendPending);
+        }
+    }
+
+    /** Return true iff the cache has finished loading. */
+    boolean loaded() {
+        return _loaded;
+    }
+
+    /** Finish writing all stored records. */
+    void close() {
+        _writer.shutdown();
+        try {
+            _writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException excp) {
+            throw new IllegalStateException("interrupted");
+        }
+        try {
+            if (_log != null) {
+                _log.close();
+            }
+        } catch (IOException excp) {
+            /* Ignore: the records are on their way to the disk. */
+        }
+    }
+
+    /** Return a cache kept in files named NAME and NAME.log, arranging
+     *  for stored records to be written out when the program exits. */
+    static AnalysisCache open(String name) {
+        AnalysisCache cache = new AnalysisCache(Paths.get(name));
+        Runtime.getRuntime().addShutdownHook(new Thread(cache::close));
+        return cache;
+    }
+
+    /** Return the entry { MOVE, DEPTH, SCORE } (indexed by the constants
+     *  of those names) recorded under KEY, or null if none. */
+    private int[] find(long key) {
+        int[] entry = _recent.get(key);
+        if (entry != null || !_loaded || _index == null) {
+            return entry;
+        }
+        MappedByteBuffer[] index = _index;
+        long lo = 0, hi = _indexSize - 1;
+        while (lo <= hi) {
+            long mid = (lo + hi) >>> 1;
+            MappedByteBuffer segment = index[(int) (mid / SEGMENT_RECORDS)];
+            int p = (int) (mid % SEGMENT_RECORDS) * RECORD_SIZE;
+            long midKey = segment.getLong(p);
+            if (midKey < key) {
+                lo = mid + 1;
+            } else if (midKey > key) {
+                hi = mid - 1;
+            } else {
+                entry = new int[3];
+                entry[MOVE] = segment.getInt(p + 8);
+                entry[DEPTH] = segment.getInt(p + 12);
+                entry[SCORE] = segment.getInt(p + 16);
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /** Merge my log into my index and map the index.  Failure leaves the
+     *  cache empty but usable. */
+    private void load() {
+        try (FileChannel log =
+             FileChannel.open(_logPath, StandardOpenOption.CREATE,
+                              StandardOpenOption.READ,
+                              StandardOpenOption.WRITE)) {
+            FileLock lock = log.lock();
+            try {
+                long[][] logged = readLog(log);
+                if (logged.length > 0) {
+                    compact(logged);
+                    log.truncate(0);
+                }
+                if (Files.exists(_indexPath)) {
+                    try (FileChannel index = FileChannel.open(_indexPath)) {
+                        _indexSize = index.size() / RECORD_SIZE;
+                        _index = map(index, _indexSize);
+                    }
+                }
+            } finally {
+                lock.release();
+            }
+        } catch (IOException excp) {
+            _index = null;
+        }
+        _loaded = true;
+    }
+
+    /** Return the records of INDEX, which holds RECORDS records, mapped
+     *  in segments of SEGMENT_RECORDS records. */
+    private static MappedByteBuffer[] map(FileChannel index, long records)
+        throws IOException {
+        int n = (int) ((records + SEGMENT_RECORDS - 1) / SEGMENT_RECORDS);
+        MappedByteBuffer[] segments = new MappedByteBuffer[n];
+        for (int i = 0; i < n; i += 1) {
+            long first = (long) i * SEGMENT_RECORDS;
+            long count = Math.min(SEGMENT_RECORDS, records - first);
+            segments[i] = index.map(FileChannel.MapMode.READ_ONLY,
+                                    first * RECORD_SIZE,
+                                    count * RECORD_SIZE);
+        }
+        return segments;
+    }
+
+    /** Return the records in LOG, each of the form { KEY, MOVE, DEPTH,
+     *  SCORE }, sorted by key and then by decreasing depth. */
+    private static long[][] readLog(FileChannel log) throws IOException {
+        Records input = new Records(log);
+        if (input.remaining() > Integer.MAX_VALUE) {
+            throw new IOException("analysis cache log too large");
+        }
+        long[][] records = new long[(int) input.remaining()][];
+        for (int i = 0; i < records.length; i += 1) {
+            records[i] = input.next();
+        }
+        Arrays.sort(records, Comparator.<long[]>comparingLong(r -> r[0])
+                    .thenComparingLong(r -> -r[2]));
+        return records;
+    }
+
+    /** Write a new index holding the deepest record for each key among
+     *  LOGGED (as returned by readLog) and my current index, replacing
+     *  the current index atomically.  The current index is read in
+     *  order as it is merged, and is never held in memory. */
+    private void compact(long[][] logged) throws IOException {
+        FileChannel index =
+            Files.exists(_indexPath) ? FileChannel.open(_indexPath) : null;
+        Path temp = Paths.get(_indexPath + ".tmp");
+        try (OutputStream file = Files.newOutputStream(temp);
+             DataOutputStream out =
+             new DataOutputStream(new BufferedOutputStream(file))) {
+            Records old = index == null ? null : new Records(index);
+            long[] oldNext = old == null ? null : old.next();
+            int i = 0;
+            long[] previous = null;
+            while (i < logged.length || oldNext != null) {
+                long[] next;
+                if (oldNext == null
+                    || i < logged.length && precedes(logged[i], oldNext)) {
+                    next = logged[i++];
+                } else {
+                    next = oldNext;
+                    oldNext = old.next();
+                }
+                if (previous == null || next[0] != previous[0]) {
+                    out.writeLong(next[0]);
+                    out.writeInt((int) next[1]);
+                    out.writeInt((int) next[2]);
+                    out.writeInt((int) next[3]);
+                    previous = next;
+                }
+            }
+        } finally {
+            if (index != null) {
+                index.close();
+            }
+        }
+        Files.move(temp, _indexPath, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Return true iff record A (as returned by readLog) comes before
+     *  record B in an index: it has a smaller key, or the same key and
+     *  at least the same depth. */
+    private static boolean precedes(long[] a, long[] b) {
+        return a[0] < b[0] || a[0] == b[0] && a[2] >= b[2];
+    }
+
+    /** Append all pending records to my log, in batches of at most
+     *  APPEND_BATCH records, each written under one lock with one
+     *  write.  After a failure, pending records are discarded. */
+    private void appendPending() {
+        _appendScheduled.set(false);
+        while (!_pending.isEmpty()) {
+            _batch.clear();
+            long[] record;
+            while (_batch.remaining() >= RECORD_SIZE
+                   && (record = _pending.poll()) != null) {
+                _batch.putLong(record[0]).putInt((int) record[1])
+                    .putInt((int) record[2]).putInt((int) record[3]);
+            }
+            _batch.flip();
+            if (_logFailed) {
+                continue;
+            }
+            try {
+                if (_log == null) {
+                    _log = FileChannel.open(_logPath,
+                                            StandardOpenOption.CREATE,
+                                            StandardOpenOption.WRITE,
+                                            StandardOpenOption.APPEND);
+                }
+                FileLock lock = _log.lock();
+                try {
+                    while (_batch.hasRemaining()) {
+                        _log.write(_batch);
+                    }
+                } finally {
+                    lock.release();
+                }
+            } catch (IOException excp) {
+                _logFailed = true;
+            }
+        }
+    }
+
+    /** A reader of the records of a file, in order. */
+    private static class Records {
+
+        /** A reader of the records of CHANNEL, from its current
+         *  position. */
+        Records(FileChannel channel) throws IOException {
+            _channel = channel;
+            _remaining = (channel.size() - channel.position()) / RECORD_SIZE;
+            _buffer.flip();
+        }
+
+        /** Return the number of records not yet read. */
+        long remaining() {
+            return _remaining;
+        }
+
+        /** Return the next record, in the form { KEY, MOVE, DEPTH, SCORE
+         *  }, or null if there are no more. */
+        long[] next() throws IOException {
+            if (_remaining == 0) {
+                return null;
+            }
+            if (_buffer.remaining() < RECORD_SIZE) {
+                _buffer.compact();
+                while (_buffer.hasRemaining() && _channel.read(_buffer) > 0) {
+                    continue;
+                }
+                _buffer.flip();
+                if (_buffer.remaining() < RECORD_SIZE) {
+                    throw new IOException("analysis cache file truncated");
+                }
+            }
+            _remaining -= 1;
+            return new long[] { _buffer.getLong(), _buffer.getInt(),
+                                _buffer.getInt(), _buffer.getInt() };
+        }
+
+        /** The file read. */
+        private final FileChannel _channel;
+        /** Records read from the file and not yet returned. */
+        private final ByteBuffer _buffer =
+            ByteBuffer.allocate(RECORD_SIZE * READ_RECORDS);
+        /** Number of records not yet returned. */
+        private long _remaining;
+    }
+
+    /** Indices of the fields of an entry. */
+    private static final int MOVE = 0, DEPTH = 1, SCORE = 2;
+
+    /** Number of records in each mapped segment of an index. */
+    private static final long SEGMENT_RECORDS = 1 << 26;
+
+    /** Number of records read from a file at once. */
+    private static final int READ_RECORDS = 4096;
+
+    /** Maximum number of records appended to the log at once. */
+    private static final int APPEND_BATCH = 4096;
+
+    /** Path of my index. */
+    private final Path _indexPath;
+
+    /** Path of my log. */
+    private final Path _logPath;
+
+    /** The segments of my index, or null if there is none. */
+    private volatile MappedByteBuffer[] _index;
+
+    /** Number of records in _index. */
+    private volatile long _indexSize;
+
+    /** True once the index has been loaded. */
+    private volatile boolean _loaded;
+
+    /** Entries stored since the cache was opened. */
+    private final ConcurrentHashMap<Long, int[]> _recent =
+        new ConcurrentHashMap<>();
+
+    /** Records, in the form { KEY, MOVE, DEPTH, SCORE }, stored but not
+     *  yet appended to the log. */
+    private final ConcurrentLinkedQueue<long[]> _pending =
+        new ConcurrentLinkedQueue<>();
+
+    /** True iff a task appending _pending to the log is scheduled and
+     *  has not yet started. */
+    private final AtomicBoolean _appendScheduled = new AtomicBoolean();
+
+    /** Thread loading the cache and then appending records to the
+     *  log. */
+    private final ExecutorService _writer;
+
+    /** Buffer holding a batch of records being appended.  Used only by
+     *  _writer. */
+    private final ByteBuffer _batch =
+        ByteBuffer.allocate(RECORD_SIZE * APPEND_BATCH);
+
+    /** The log, as opened for appending, or null if not yet opened.
+     *  Used only by _writer. */
+    private FileChannel _log;
+
+    /** True if writing the log has failed. */
+    private boolean _logFailed;
+}
@@ -0,0 +1,85 @@
+package amazons;
+
+/** A standard benchmark: fixed-depth searches by an AI of each of the
+ *  positions of the Corpus.  It reports the total number of nodes
+ *  searched, the time taken, and the resulting nodes per second, which
+ *  measures the speed of the host and of the program.  It also reports a
+ *  signature computed from the node counts and moves chosen, which
+ *  changes whenever a change to the program changes what the search
+ *  does, and is otherwise the same on all hosts.
+ *  @author Sasha Manghise
+ */
+final class Bench {
+
+    /** Default search depth, in plies. */
+    static final int DEFAULT_DEPTH = 2;
+
+    /** Not instantiable. */
+    private Bench() {
+    }
+
+    /** Run the benchmark with searches to DEPTH plies by an AI under the
+     *  control of CONTROLLER, printing the results on the standard
+     *  output.  CONTROLLER's board, including the history of moves that
+     *  undo takes back, is restored afterward, even if the benchmark
+     *  fails. */
+    static void run(Controller controller, int depth) {
+        Board board = controller.board();
+        Position saved = new Position(board);
+        int history = board.numMoves();
+        AI ai = (AI) new AI().create(board.turn(), controller);
+        long nodes = 0, evaluations = 0, evaluationTime = 0;
+        long signature = 0;
+        long start = System.nanoTime();
+        try {
+            for (String name : Corpus.NAMES) {
+                Corpus.setUp(board, name);
+                SearchStats stats = ai.statistics();
+                stats.reset();
+                Move move = ai.findMove(new Board(board), depth);
+                System.out.printf("%-14s %10d nodes  %s%n", name,
+                                  stats.nodes(), move);
+                nodes += stats.nodes();
+                evaluations += stats.evaluations();
+                evaluationTime += stats.evaluationTime();
+                signature = Position.mix(signature ^ stats.nodes());
+                signature = Position.mix(signature
+                                         ^ (move == null ? -1
+                                            : Position.pack(move)));
+                undo(board, history);
+            }
+        } finally {
+            undo(board, history);
+            restore(board, saved);
+        }
+        double seconds = (System.nanoTime() - start) * 1e-9;
+        System.out.printf("===%n");
+        System.out.printf("Nodes searched : %d%n", nodes);
+        System.out.printf("Evaluations    : %d (%.3f s)%n", evaluations,
+                          evaluationTime * 1e-9);
+        System.out.printf("Time           : %.3f s%n", seconds);
+        System.out.printf("Nodes/second   : %.0f%n", nodes / seconds);
+        System.out.printf("Signature      : %016x%n", signature);
+    }
+
+    /** Take back the moves made on BOARD since it had made HISTORY
+     *  moves.  Corpus.setUp does not clear the history of moves (which
+     *  all Boards share), so this leaves it as it was before. */
+    private static void undo(Board board, int history) {
+        while (board.numMoves() > history) {
+            board.undo();
+        }
+    }
+
+    /** Set the contents and side to move of BOARD to those of POS,
+     *  leaving its move history alone. */
+    private static void restore(Board board, Position pos) {
+        Piece[] pieces = { Piece.EMPTY, Piece.WHITE, Piece.BLACK,
+                           Piece.SPEAR };
+        for (int s = 0; s < Position.SQUARES; s += 1) {
+            board.put(pieces[pos.get(s)], Square.sq(s));
+        }
+        board.setTurn(pos.turn());
+        board.findAllQueens(Piece.WHITE);
+    }
+}
@@ -1,9 +1,13 @@
 package amazons;
 
-import java.io.PrintStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
 import java.util.Random;
-import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -23,21 +27,25 @@ final class Controller {
      * (see the Player.create method) and AUTOPLAYERTEMPLATE
      * as an exemplar for automated players.  Reports
      * board changes to VIEW at appropriate points.  Uses REPORTER
-     * to report moves, wins, and errors to user. If LOGFILE is
-     * non-null, copies all commands to it. If STRICT, exits the
+     * to report moves, wins, and errors to user. If LOG is
+     * non-null, copies all commands and moves to it. If STRICT, exits the
      * program with non-zero code on receiving an erroneous move from a
      * player.
      */
-    Controller(View view, PrintStream logFile, Reporter reporter,
+    Controller(View view, GameLog log, Reporter reporter,
                Player manualPlayerTemplate, Player autoPlayerTemplate) {
         _view = view;
         _playing = false;
-        _logFile = logFile;
-        _input = new Scanner(System.in);
+        _log = log;
+        _input = new BufferedReader(new InputStreamReader(System.in),
+                                    INPUT_BUFFER_SIZE);
         _autoPlayerTemplate = autoPlayerTemplate;
         _manualPlayerTemplate = manualPlayerTemplate;
         _nonPlayer = manualPlayerTemplate.create(EMPTY, this);
         _reporter = reporter;
+        for (Command command : _commands) {
+            _keywords.put(command._keyword, command);
+        }
     }
 
     /**
@@ -48,6 +56,10 @@ final class Controller {
         _playing = true;
         _winner = null;
         _board.init();
+        if (_protocol) {
+            playProtocol();
+            return;
+        }
         _white = _manualPlayerTemplate.create(WHITE, this);
         _black = _autoPlayerTemplate.create(BLACK, this);
         while (_playing) {
@@ -56,14 +68,29 @@ final class Controller {
             String command;
 
             if (_winner == null) {
+                Player mover, opponent;
                 if (_board.turn() == WHITE) {
                     System.out.println("White Move");
-                    command = _white.myMove();
-
+                    mover = _white;
+                    opponent = _black;
                 } else {
                     System.out.println("Black Move");
-                    command = _black.myMove();
+                    mover = _black;
+                    opponent = _white;
                 }
+                if (mover instanceof MoveChooser) {
+                    MoveChooser chooser = (MoveChooser) mover;
+                    chooser.resetChoosing();
+                    _chooser = chooser;
+                    try {
+                        playMove(myMove(mover, opponent,
+                                        chooser::chooseMove));
+                    } finally {
+                        _chooser = null;
+                    }
+                    continue;
+                }
+                command = myMove(mover, opponent, mover::myMove);
             } else {
                 command = _nonPlayer.myMove();
                 if (command == null) {
@@ -72,24 +99,8 @@ final class Controller {
             }
             try {
 
-                executeCommand(command);
-
-                if (command != null && Move.isGrammaticalMove(command)) {
-                    if (board().turn() == WHITE) {
-                        board().getQueenPositions(BLACK);
-                        board().getQueenPositions(WHITE);
-                        board().setTurn(BLACK);
-
-                    } else {
-                        board().getQueenPositions(WHITE);
-                        board().getQueenPositions(BLACK);
-                        board().setTurn(WHITE);
-
-                    }
-                    if (checkWin()) {
-                        command = "manual white";
-                        _winner = EMPTY;
-                    }
+                if (executeCommand(command)) {
+                    finishMove();
                 }
 
             } catch (IllegalArgumentException excp) {
@@ -98,9 +109,137 @@ final class Controller {
                 reportError("Error: %s%n", excp.getMessage());
             }
         }
-        if (_logFile != null) {
-            _logFile.close();
+        if (_log != null) {
+            _log.close();
         }
+        System.out.flush();
+    }
+
+    /**
+     * Play under the engine protocol (see Protocol), with searches by
+     * an automated player, until "quit" or the end of the input.  The
+     * search runs on its own thread while I continue to read commands.
+     */
+    private void playProtocol() {
+        Protocol protocol =
+            new Protocol(_board, (AI) _autoPlayerTemplate.create(WHITE, this),
+                         System.out);
+        while (_playing) {
+            String command = readCommand();
+            log(command);
+            try {
+                _playing = command != null && protocol.execute(command);
+            } catch (IllegalArgumentException excp) {
+                protocol.reportError(excp.getMessage());
+            }
+        }
+        protocol.finish();
+        if (_log != null) {
+            _log.close();
+        }
+        System.out.flush();
+    }
+
+    /**
+     * Return the next command or move from MOVER, as given by CHOICE.
+     * If pondering is enabled and OPPONENT can ponder while MOVER
+     * cannot, OPPONENT thinks about the position in the meantime.
+     */
+    private <T> T myMove(Player mover, Player opponent, Supplier<T> choice) {
+        if (!_ponder || mover instanceof Ponderer
+            || !(opponent instanceof Ponderer)) {
+            return choice.get();
+        }
+        Ponderer ponderer = (Ponderer) opponent;
+        ponderer.startPondering(new Position(_board));
+        try {
+            return choice.get();
+        } finally {
+            ponderer.stopPondering();
+        }
+    }
+
+    /**
+     * Make MOVE, chosen by the player to move, unless it is null.  This
+     * is the path taken by MoveChoosers, which bypasses the parsing of
+     * executeCommand.  MOVE is logged as if it had been typed.
+     */
+    private void playMove(Move move) {
+        if (move == null) {
+            return;
+        }
+        log(move.toString());
+        try {
+            _board.makeMove(move);
+            numMoves++;
+            logMove(move);
+            finishMove();
+        } catch (IllegalArgumentException excp) {
+            System.out.println("Illegal Argument Exception is thrown "
+                    + excp.getLocalizedMessage());
+            reportError("Error: %s%n", excp.getMessage());
+        }
+    }
+
+    /**
+     * Give the turn to the opponent of the side that just moved, and
+     * end the game if that wins it.
+     */
+    private void finishMove() {
+        if (board().turn() == WHITE) {
+            board().getQueenPositions(BLACK);
+            board().getQueenPositions(WHITE);
+            board().setTurn(BLACK);
+
+        } else {
+            board().getQueenPositions(WHITE);
+            board().getQueenPositions(BLACK);
+            board().setTurn(WHITE);
+
+        }
+        if (checkWin()) {
+            _winner = EMPTY;
+            if (_log != null) {
+                _log.endGame();
+            }
+        }
+    }
+
+    /**
+     * Make the automated player now choosing a move, if any, move at
+     * once with the best move it has found, so that commands waiting for
+     * it (such as those from the GUI's New and Quit) take effect
+     * promptly.  May be called from any thread.
+     */
+    void hurry() {
+        MoveChooser chooser = _chooser;
+        if (chooser != null) {
+            chooser.stopChoosing();
+        }
+    }
+
+    /**
+     * Allow automated players to think on their opponents' time iff ON.
+     */
+    void setPonder(boolean on) {
+        _ponder = on;
+    }
+
+    /**
+     * Play under the engine protocol (see Protocol) iff ON.  The automated
+     * player template must then be an AI.
+     */
+    void setProtocol(boolean on) {
+        _protocol = on;
+    }
+
+    /**
+     * Stop flushing the standard output at each prompt iff ON, so that
+     * it is written only in large blocks (see HeadlessReporter).  For
+     * use only when no one is waiting for the prompts.
+     */
+    void setHeadless(boolean on) {
+        _headless = on;
     }
 
     /** checkWin.
@@ -153,11 +292,23 @@ final class Controller {
      */
     String readLine() {
         System.out.print("> ");
-        System.out.flush();
-        if (_input.hasNextLine()) {
-            return _input.nextLine().trim();
-        } else {
-            return null;
+        if (!_headless) {
+            System.out.flush();
+        }
+        return readCommand();
+    }
+
+    /**
+     * Return the next line of input, trimmed, or null if there is no more,
+     * without prompting.
+     */
+    private String readCommand() {
+        try {
+            String line = _input.readLine();
+            return line == null ? null : line.trim();
+        } catch (IOException excp) {
+            throw new IllegalStateException("could not read input: "
+                                            + excp.getMessage());
         }
     }
 
@@ -183,21 +334,29 @@ final class Controller {
     }
 
     /**
-     * A Command is pair (<pattern>, <processor>), where <pattern> is a
-     * Matcher that matches instances of a particular command, and
-     * <processor> is a functional object whose .accept method takes a
-     * successfully matched Matcher and performs some operation.
+     * A Command is triple (<keyword>, <pattern>, <processor>), where
+     * <keyword> is the first word of the command, <pattern> is a Matcher
+     * that matches instances of a particular command, and <processor> is
+     * a functional object whose .accept method takes a successfully
+     * matched Matcher and performs some operation.
      */
     private static class Command {
         /**
-         * A new Command that matches PATN (a regular expression) and uses
-         * PROCESSOR to process commands that match the pattern.
+         * A new Command starting with KEYWORD that matches PATN (a regular
+         * expression) and uses PROCESSOR to process commands that match
+         * the pattern.
          */
-        Command(String patn, Consumer<Matcher> processor) {
+        Command(String keyword, String patn, Consumer<Matcher> processor) {
+            _keyword = keyword;
             _matcher = Pattern.compile(patn).matcher("");
             _processor = processor;
         }
 
+        /**
+         * The first word of my commands.
+         */
+        protected final String _keyword;
+
         /**
          * A Matcher matching my pattern.
          */
@@ -210,53 +369,90 @@ final class Controller {
 
     /**
      * A list of Commands describing the valid textual commands to the
-     * Amazons program and the methods to process them.
+     * Amazons program, other than moves, and the methods to process
+     * them.
      */
     private Command[] _commands = {
 
-        new Command("quit$", this::doQuit),
-        new Command("seed\\s+(\\d+)$", this::doSeed),
-        new Command("dump$", this::doDump),
-        new Command("([a-j]\\d+)\\-([a-j]\\d+)\\(([a-j]\\d+)\\)", this::doMove),
-        new Command("new$", this::doNew),
-        new Command("auto\\s+(white|black)", this::doAuto),
-        new Command("manual\\s+(white|black)", this::doManual)
+        new Command("quit", "quit$", this::doQuit),
+        new Command("seed", "seed\\s+(\\d+)$", this::doSeed),
+        new Command("dump", "dump$", this::doDump),
+        new Command("perft", "perft\\s+(\\d+)$", this::doPerft),
+        new Command("bench", "bench(?:\\s+(\\d+))?$", this::doBench),
+        new Command("new", "new$", this::doNew),
+        new Command("auto", "auto\\s+(white|black)", this::doAuto),
+        new Command("manual", "manual\\s+(white|black)", this::doManual)
     };
 
     /**
-     * A Matcher whose Pattern matches comments.
+     * The Commands in _commands, indexed by keyword.
      */
-    private final Matcher _comment = Pattern.compile("#.*").matcher("");
+    private final HashMap<String, Command> _keywords = new HashMap<>();
 
     /**
      * Check that CMND is one of the valid Amazons commands and execute it, if
-     * so, raising an IllegalArgumentException otherwise.
+     * so, raising an IllegalArgumentException otherwise.  Returns true
+     * iff CMND is a move.  Commands are dispatched on their first word,
+     * so that at most one pattern is tried, and moves, the commonest
+     * commands, are parsed without patterns at all.
      */
-    private void executeCommand(String cmnd) {
+    private boolean executeCommand(String cmnd) {
 
-        if (_logFile != null) {
-            _logFile.println(cmnd);
-            _logFile.flush();
-        }
+        log(cmnd);
         if (cmnd == null) {
-            return;
+            return false;
         }
-        _comment.reset(cmnd);
-        cmnd = _comment.replaceFirst("").trim().toLowerCase();
+        int comment = cmnd.indexOf('#');
+        if (comment >= 0) {
+            cmnd = cmnd.substring(0, comment);
+        }
+        cmnd = cmnd.trim().toLowerCase();
 
         if (cmnd.isEmpty()) {
-            return;
+            return false;
         }
-        for (Command parser : _commands) {
+        Move move = Move.mv(cmnd);
+        if (move != null) {
+            doMove(move);
+            return true;
+        }
+        int end = 0;
+        while (end < cmnd.length()
+               && !Character.isWhitespace(cmnd.charAt(end))) {
+            end += 1;
+        }
+        Command parser = _keywords.get(cmnd.substring(0, end));
+        if (parser != null) {
             parser._matcher.reset(cmnd);
             if (parser._matcher.matches()) {
                 parser._processor.accept(parser._matcher);
-                return;
+                return false;
             }
         }
+        if (Move.isGrammaticalMove(cmnd)) {
+            throw error("Invalid move!");
+        }
         throw error("Bad command: %s", cmnd);
     }
 
+    /**
+     * Copy CMND, if not null, to my log, if any.
+     */
+    private void log(String cmnd) {
+        if (_log != null && cmnd != null) {
+            _log.command(cmnd);
+        }
+    }
+
+    /**
+     * Record MOVE, which has just been made, in my log, if any.
+     */
+    private void logMove(Move move) {
+        if (_log != null) {
+            _log.move(move);
+        }
+    }
+
     /** doAuto.
      * @param mat matcher
      * */
@@ -284,6 +480,9 @@ final class Controller {
      * Command new.
      */
     private void doNew(Matcher unused) {
+        if (_log != null) {
+            _log.newGame();
+        }
         _board.init();
         _winner = null;
         _gameWon = false;
@@ -298,34 +497,16 @@ final class Controller {
 
     /**
      * Command for move.
-     * @param mat move
+     * @param newMove move
      */
-    private void doMove(Matcher mat) {
-        /*
-        Move newMove = Move.mv(mat.group(0));
-        if (newMove != null) {
-            _board.makeMove(newMove);
-            numMoves++;
-        } else {
-            throw error("Invalid move: " + mat.group(0));
-        }
-        */
-
-        Move newMove = null;
-        if (Square.sq(mat.group(1)).getPiece() == BLACK
-                || Square.sq(mat.group(1)).getPiece() == WHITE) {
-            newMove = Move.mv(mat.group(0));
-        } else {
-            newMove = null;
-        }
-
-        if (newMove != null) {
-            _board.makeMove(newMove);
-            numMoves++;
-        } else {
+    private void doMove(Move newMove) {
+        if (newMove.from().getPiece() != BLACK
+            && newMove.from().getPiece() != WHITE) {
             throw error("Invalid move!");
         }
-
+        _board.makeMove(newMove);
+        numMoves++;
+        logMove(newMove);
     }
 
     /**
@@ -346,6 +527,41 @@ final class Controller {
         System.out.printf("===%n%s===%n", _board);
     }
 
+    /**
+     * Command "perft N", where N is the first group of MAT: count the
+     * sequences of N legal moves from the current position.
+     */
+    private void doPerft(Matcher mat) {
+        int depth;
+        try {
+            depth = Integer.parseInt(mat.group(1));
+        } catch (NumberFormatException excp) {
+            throw error("number too large");
+        }
+        long start = System.nanoTime();
+        long nodes = Perft.perft(new Position(_board), depth,
+                                 ForkJoinPool.commonPool());
+        double seconds = (System.nanoTime() - start) * 1e-9;
+        System.out.printf("perft(%d) = %d (%.3f s, %.0f nodes/s)%n",
+                          depth, nodes, seconds, nodes / seconds);
+    }
+
+    /**
+     * Command "bench [N]": run the standard benchmark with searches to
+     * depth N (the first group of MAT), if present.
+     */
+    private void doBench(Matcher mat) {
+        int depth = Bench.DEFAULT_DEPTH;
+        if (mat.group(1) != null) {
+            try {
+                depth = Integer.parseInt(mat.group(1));
+            } catch (NumberFormatException excp) {
+                throw error("number too large");
+            }
+        }
+        Bench.run(this, depth);
+    }
+
     /**
      * nuMoves.
      */
@@ -377,14 +593,19 @@ final class Controller {
     private Random _randGen = new Random();
 
     /**
-     * Log file, or null if absent.
+     * Log of commands and moves, or null if absent.
      */
-    private PrintStream _logFile;
+    private GameLog _log;
 
     /**
      * Input source.
      */
-    private Scanner _input;
+    private BufferedReader _input;
+
+    /**
+     * Size of the input buffer, in characters.
+     */
+    private static final int INPUT_BUFFER_SIZE = 1 << 16;
 
     /**
      * The current White and Black players, each created from
@@ -408,6 +629,18 @@ final class Controller {
      */
     private Reporter _reporter;
 
+    /** True if automated players may ponder. */
+    private boolean _ponder;
+
+    /** True if prompts are not flushed. */
+    private boolean _headless;
+
+    /** True if playing under the engine protocol. */
+    private boolean _protocol;
+
+    /** The automated player now choosing a move, or null if none. */
+    private volatile MoveChooser _chooser;
+
     /** True if game is won. */
     private boolean _gameWon = false;
 
@@ -0,0 +1,95 @@
+package amazons;
+
+import static amazons.Utils.error;
+
+/** A fixed set of positions from the opening, middlegame, and endgame,
+ *  for use by benchmarks, which must measure the same work from one
+ *  version of the program to the next.  Each position is given by the
+ *  moves that lead to it from the initial position: the first PLIES
+ *  moves of one of two recorded games.
+ *  @author Sasha Manghise
+ */
+final class Corpus {
+
+    /** Names of the positions, in order of increasing number of moves
+     *  made. */
+    static final String[] NAMES = {
+        "opening-1", "opening-2", "middlegame-1", "middlegame-2",
+        "endgame-1", "endgame-2"
+    };
+
+    /** Not instantiable. */
+    private Corpus() {
+    }
+
+    /** Return the moves leading to the position named NAME. */
+    static Move[] moves(String name) {
+        for (int i = 0; i < NAMES.length; i += 1) {
+            if (NAMES[i].equals(name)) {
+                String[] game = GAMES[i % 2].trim().split("\\s+");
+                Move[] result = new Move[PLIES[i]];
+                for (int k = 0; k < result.length; k += 1) {
+                    result[k] = Move.mv(game[k]);
+                }
+                return result;
+            }
+        }
+        throw error("no corpus position named %s", name);
+    }
+
+    /** Set BOARD to the position named NAME, with the appropriate side to
+     *  move.  The moves of NAME are added to the history of moves that
+     *  undo takes back, which is not otherwise cleared. */
+    static void setUp(Board board, String name) {
+        board.init();
+        for (Move move : moves(name)) {
+            board.makeMove(move);
+            board.setTurn(board.turn() == Piece.WHITE
+                          ? Piece.BLACK : Piece.WHITE);
+        }
+        board.findAllQueens(Piece.WHITE);
+    }
+
+    /** Return a new Position holding the position named NAME. */
+    static Position position(String name) {
+        Position result = new Position();
+        for (Move move : moves(name)) {
+            result.makeMove(Position.pack(move));
+        }
+        return result;
+    }
+
+    /** Number of moves of the game leading to each position in NAMES. */
+    private static final int[] PLIES = { 4, 6, 30, 30, 60, 64 };
+
+    /** Two complete games. */
+    private static final String[] GAMES = {
+        "d1-d2(c1) d10-f10(c10) a4-b3(d1) j7-h9(c9) g1-i1(g1) g10-j10(g10)"
+        + " d2-e3(e6) h9-i8(b1) e3-h6(i6) f10-g9(h8) h6-i5(j6) g9-g6(d3)"
+        + " b3-c3(c4) j10-h10(i9) i5-i3(j3) g6-h7(j7) j4-j5(j4) h10-e7(a3)"
+        + " j5-h3(i4) a7-a8(a5) i3-j2(f6) i8-i7(d2) c3-c2(c3) e7-e8(c8)"
+        + " c2-a4(c2) e8-e10(e8) j2-h4(g5) a8-a10(a9) i1-j2(i1) e10-g8(h9)"
+        + " a4-b5(f5) h7-e7(g9) h3-g2(b7) g8-g6(h6) g2-d5(e5) g6-g7(d10)"
+        + " d5-c5(d6) e7-d8(d9) h4-h5(g4) g7-e9(g7) h5-i5(h5) i7-i8(j9)"
+        + " i5-f2(i2) e9-e10(f9) b5-a4(b3) d8-b6(c6) a4-b5(b4) a10-b10(a10)"
+        + " b5-a6(a7) b6-b5(b6) f2-h2(g2) i8-g6(f7) j2-i3(j2) b10-b9(b10)"
+        + " h2-g3(h3) b9-b8(a8) c5-d4(d5) g6-h7(g8) i3-h4(i3) b5-a4(b5)"
+        + " g3-e3(e2) b8-b9(b8) h4-i5(f2) e10-f10(e10) i5-h4(i5) h7-i8(j8)"
+        + " e3-g3(f4) i8-i7(i8) d4-c5(d4) f10-e9(d8) g3-f3(e3) e9-f8(e7)"
+        + " h4-g3(h4) i7-h7(i7) f3-e4(f3) f8-e9(f10) g3-h2(h1) e9-f8(e9)"
+        + " h2-g3(h2) h7-g6(h7)",
+        "g1-e1(c3) d10-b8(d10) d1-g4(i4) a7-a9(b10) a4-c4(f4) g10-g6(g8)"
+        + " j4-i3(j2) b8-c9(b9) i3-j3(d3) c9-a7(a8) g4-f3(d1) a9-c7(d6)"
+        + " j3-h1(i2) g6-g5(g1) c4-c6(b7) c7-f7(f5) h1-i1(j1) a7-a1(c1)"
+        + " f3-e4(g2) a1-b2(b5) e1-d2(c2) b2-a2(a6) d2-e3(d2) j7-i7(h8)"
+        + " e3-h3(h1) a2-c4(d4) e4-f3(e2) f7-f9(f6) f3-e3(g3) i7-j7(j10)"
+        + " h3-h4(g4) g5-g6(c10) c6-b6(a7) f9-f10(f8) h4-g5(i5) j7-h9(i8)"
+        + " i1-h2(h4) c4-b4(b1) b6-c7(b6) f10-e9(d8) c7-c8(c9) e9-d9(e10)"
+        + " g5-h5(h7) g6-g7(g5) e3-f2(f1) b4-a3(b2) h2-h3(h2) g7-g6(g7)"
+        + " f2-e3(f2) g6-h6(i6) h3-j3(j6) h9-h10(i10) e3-f3(d5) h6-g6(h6)"
+        + " f3-e3(e8) a3-a5(b4) j3-i3(j3) h10-h9(e9) e3-f3(e3) a5-a4(a2)"
+        + " c8-d7(c8) h9-g10(h9) d7-c6(d7) g10-f9(g10) c6-c5(c4) a4-a3(a4)"
+        + " f3-e4(e7) g6-f7(e6) c5-c7(c5) f9-f10(g9) c7-b8(c7) f10-f9(f10)"
+        + " e4-e5(e4) f7-g6(f7) b8-a9(b8) a3-b3(a3) a9-a10(a9)"
+    };
+}
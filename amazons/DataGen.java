@@ -0,0 +1,227 @@
+package amazons;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Generator of training data: every position of many seeded self-play
+ *  games between Monte Carlo tree searches, in a compact binary form.
+ *
+ *  Each position is a RECORD_SIZE-byte record.  It begins with three
+ *  128-bit bitboards (each two big-endian longs, the bits of squares 0-63
+ *  followed by those of squares 64-99) marking the squares of the WHITE
+ *  queens, the BLACK queens, and the spears, in that order.  Then come
+ *  the packed best move found by the search (a 4-byte int), the search's
+ *  estimate, in thousandths, of the chance that the side to move wins (a
+ *  2-byte short), the side to move (a byte: 0 for WHITE, 1 for BLACK),
+ *  and the result (a byte: 1 if the side to move went on to win the game,
+ *  and 0 otherwise).
+ *
+ *  The data are divided into shards of GAMES_PER_SHARD games, each in its
+ *  own file, named by its number, in one directory.  The games of a
+ *  shard depend only on its number, so shards may be generated in any
+ *  order.  A shard is written under a temporary name, synced to disk and
+ *  renamed only when complete, and its directory then synced, so an
+ *  interrupted run may be resumed simply by running it again: complete
+ *  shards are kept and incomplete ones are redone.
+ *  @author Sasha Manghise
+ */
+final class DataGen {
+
+    /** Size of a position record in bytes. */
+    static final int RECORD_SIZE = 56;
+
+    /** Byte offsets of the fields of a record. */
+    static final int WHITE_BITS = 0, BLACK_BITS = 16, SPEAR_BITS = 32,
+        MOVE = 48, SCORE = 52, SIDE = 54, RESULT = 55;
+
+    /** Number of games in a shard. */
+    static final int GAMES_PER_SHARD = 100;
+
+    /** Default number of MCTS iterations per move. */
+    static final long DEFAULT_ITERATIONS = 2000;
+
+    /** A generator writing shards to directory DIR using searches of
+     *  ITERATIONS iterations per move, THREADS shards at a time. */
+    DataGen(Path dir, long iterations, int threads) {
+        _dir = dir;
+        _iterations = iterations;
+        _threads = threads;
+    }
+
+    /** Generate shards 0 through SHARDS-1 that are not already complete,
+     *  reporting progress on the standard output. */
+    void run(int shards) throws IOException {
+        Files.createDirectories(_dir);
+        ExecutorService pool = Executors.newFixedThreadPool(_threads);
+        List<Future<Long>> results = new ArrayList<>();
+        for (int k = 0; k < shards; k += 1) {
+            final int shard = k;
+            if (!Files.exists(shardPath(shard))) {
+                results.add(pool.submit(() -> writeShard(shard)));
+            }
+        }
+        try {
+            long total = 0;
+            for (Future<Long> result : results) {
+                total += result.get();
+            }
+            System.out.printf("%d shards written (%d positions), %d already"
+                              + " complete%n", results.size(), total,
+                              shards - results.size());
+        } catch (InterruptedException | ExecutionException excp) {
+            throw new IOException("data generation failed: " + excp);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Return the path of the complete shard #SHARD. */
+    Path shardPath(int shard) {
+        return _dir.resolve(String.format("shard-%05d.bin", shard));
+    }
+
+    /** Play the games of shard #SHARD, write them to its file, and return
+     *  the number of positions written. */
+    private long writeShard(int shard) throws IOException {
+        Path temp = _dir.resolve(String.format("shard-%05d.tmp", shard));
+        long positions = 0;
+        try (FileChannel out =
+             FileChannel.open(temp, StandardOpenOption.CREATE,
+                              StandardOpenOption.WRITE,
+                              StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            MonteCarloSearch search =
+                new MonteCarloSearch(TREE_CAPACITY, shard + 1);
+            Playout fallback = new Playout(shard + 1);
+            int[] moves = new int[Position.SQUARES];
+            short[] scores = new short[Position.SQUARES];
+            for (int g = 0; g < GAMES_PER_SHARD; g += 1) {
+                long seed = Position.mix((long) shard * GAMES_PER_SHARD + g);
+                Position start = Tournament.opening(seed);
+                Position pos = new Position(start);
+                int n = 0;
+                while (pos.winner() == null) {
+                    search.setRoot(pos);
+                    search.search(_iterations, Long.MAX_VALUE);
+                    moves[n] = search.bestMove();
+                    if (moves[n] < 0) {
+                        moves[n] = fallback.randomMove(pos);
+                    }
+                    scores[n] =
+                        (short) Math.round(search.rootValue() * 1000);
+                    pos.makeMove(moves[n]);
+                    n += 1;
+                }
+                int loser = pos.side();
+                pos.copy(start);
+                for (int i = 0; i < n; i += 1) {
+                    if (buffer.remaining() < RECORD_SIZE) {
+                        flush(out, buffer);
+                    }
+                    encode(buffer, pos, moves[i], scores[i],
+                           pos.side() != loser);
+                    pos.makeMove(moves[i]);
+                }
+                positions += n;
+            }
+            flush(out, buffer);
+            out.force(true);
+        }
+        Files.move(temp, shardPath(shard),
+                   StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+        System.out.printf("shard %d: %d positions%n", shard, positions);
+        return positions;
+    }
+
+    /** Append a record to BUFFER for POS, with best move MOVE, score
+     *  SCORE, and result WON. */
+    static void encode(ByteBuffer buffer, Position pos, int move,
+                       short score, boolean won) {
+        for (int c = Position.WHITE; c <= Position.SPEAR; c += 1) {
+            long low = 0, high = 0;
+            for (int s = 0; s < Position.SQUARES; s += 1) {
+                if (pos.get(s) == c) {
+                    if (s < 64) {
+                        low |= 1L << s;
+                    } else {
+                        high |= 1L << (s - 64);
+                    }
+                }
+            }
+            buffer.putLong(low).putLong(high);
+        }
+        buffer.putInt(move).putShort(score).put((byte) pos.side())
+            .put((byte) (won ? 1 : 0));
+    }
+
+    /** Return the contents code (as for Position) of square S in the
+     *  record at byte offset RECORD of BUFFER. */
+    static int contents(ByteBuffer buffer, int record, int s) {
+        int word = s < 64 ? 0 : 8, bit = s & 63;
+        for (int c = Position.WHITE; c <= Position.SPEAR; c += 1) {
+            long bits = buffer.getLong(record + (c - 1) * 16 + word);
+            if ((bits >>> bit & 1) != 0) {
+                return c;
+            }
+        }
+        return Position.EMPTY;
+    }
+
+    /** Set POS to the position in the record at byte offset RECORD of
+     *  BUFFER, using CELLS (of length Position.SQUARES) as scratch
+     *  storage. */
+    static void decode(ByteBuffer buffer, int record, byte[] cells,
+                       Position pos) {
+        for (int s = 0; s < Position.SQUARES; s += 1) {
+            cells[s] = (byte) contents(buffer, record, s);
+        }
+        pos.load(cells, buffer.get(record + SIDE));
+    }
+
+    /** Sync my directory to disk, so that a shard's new name survives a
+     *  crash.  Some systems do not allow a directory to be opened or
+     *  synced; there, the rename is left to the file system. */
+    private void syncDirectory() {
+        try (FileChannel dir =
+             FileChannel.open(_dir, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException excp) {
+            /* Ignore. */
+        }
+    }
+
+    /** Write the contents of BUFFER to OUT and clear it. */
+    private static void flush(FileChannel out, ByteBuffer buffer)
+        throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /** Size of the output buffer of each shard, in bytes. */
+    private static final int BUFFER_SIZE = RECORD_SIZE * 4096;
+
+    /** Number of nodes in the tree of each search. */
+    private static final int TREE_CAPACITY = 1 << 16;
+
+    /** Directory holding the shards. */
+    private final Path _dir;
+    /** Search iterations per move. */
+    private final long _iterations;
+    /** Number of shards generated at once. */
+    private final int _threads;
+}
@@ -0,0 +1,14 @@
+package amazons;
+
+/** A move chooser that works on its own Position rather than on the
+ *  shared Board, so that any number of Engines may play at once, each in
+ *  its own game (see Tournament).
+ *  @author Sasha Manghise
+ */
+interface Engine {
+
+    /** Return a packed legal move for the side to move in POSITION, which
+     *  must have at least one legal move.  POSITION is unchanged. */
+    int move(Position position);
+
+}
@@ -0,0 +1,27 @@
+package amazons;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** A Flight Recorder event for a static evaluation.  Evaluations are far
+ *  too frequent to record each one, so the AI emits this event only for
+ *  one evaluation in every AI.EVAL_EVENT_INTERVAL, and it is disabled
+ *  unless a recording's settings enable it.
+ *  @author Sasha Manghise
+ */
+@Name("amazons.Eval")
+@Label("Static Evaluation")
+@Category({ "Amazons", "Search" })
+@Description("A sampled static evaluation")
+@Enabled(false)
+@StackTrace(false)
+final class EvalEvent extends jdk.jfr.Event {
+
+    /** The value computed. */
+    @Label("Score")
+    int score;
+}
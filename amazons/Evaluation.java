@@ -0,0 +1,245 @@
+package amazons;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static amazons.Utils.error;
+
+/** A static evaluation of Positions as a weighted sum of features, each
+ *  the difference between the values of some measure for the side to
+ *  move and for its opponent:
+ *  <ul>
+ *  <li> TERRITORY: the number of empty squares that the side reaches in
+ *       fewer queen moves than the opponent;
+ *  <li> MOBILITY: the number of squares reachable by one queen move;
+ *  <li> LIBERTY: the number of empty squares adjacent to the side's
+ *       queens (counted once per queen); and
+ *  <li> REGION: the number of empty squares in regions (sets of empty
+ *       squares connected by king moves) bordered only by the side's
+ *       queens, which the opponent can never enter.
+ *  </ul>
+ *  The weights are in units of the logit of the probability that the
+ *  side to move wins, which is the form in which Tuner fits them to the
+ *  outcomes of recorded games.  Integer scores are the weighted sums
+ *  times SCALE.  An Evaluation has scratch storage, and so may be used
+ *  by only one thread at a time.
+ *  @author Sasha Manghise
+ */
+final class Evaluation {
+
+    /** Indices of the features. */
+    static final int TERRITORY = 0, MOBILITY = 1, LIBERTY = 2, REGION = 3;
+
+    /** Number of features. */
+    static final int FEATURES = 4;
+
+    /** Names of the features, as used in weights files. */
+    static final String[] NAMES = {
+        "territory", "mobility", "liberty", "region"
+    };
+
+    /** Score units per unit of logit. */
+    static final double SCALE = 1000;
+
+    /** Default weights, fitted by Tuner to self-play games between Monte
+     *  Carlo searches of 500 iterations per move. */
+    static final double[] DEFAULT_WEIGHTS = {
+        0.125, -0.115, 0.115, 0.19
+    };
+
+    /** An evaluation with the default weights. */
+    Evaluation() {
+        this(DEFAULT_WEIGHTS);
+    }
+
+    /** An evaluation with weights WEIGHTS, indexed by feature. */
+    Evaluation(double[] weights) {
+        if (weights.length != FEATURES) {
+            throw error("wrong number of weights");
+        }
+        _weights = weights.clone();
+    }
+
+    /** Return a copy of my weights. */
+    double[] weights() {
+        return _weights.clone();
+    }
+
+    /** Return my score for the side to move in POS. */
+    int score(Position pos) {
+        features(pos, _features);
+        return (int) Math.round(SCALE * dot(_weights, _features));
+    }
+
+    /** Return the sum of the products of the corresponding elements of
+     *  WEIGHTS and FEATURES. */
+    static double dot(double[] weights, double[] features) {
+        double sum = 0;
+        for (int i = 0; i < FEATURES; i += 1) {
+            sum += weights[i] * features[i];
+        }
+        return sum;
+    }
+
+    /** Store the features of POS, for the side to move, in RESULT. */
+    void features(Position pos, double[] result) {
+        int me = pos.side(), him = 1 - me;
+        int[] mine = _distance[0], his = _distance[1];
+        distances(pos, me, mine);
+        distances(pos, him, his);
+        int territory = 0, mobility = 0;
+        for (int s = 0; s < Position.SQUARES; s += 1) {
+            if (pos.get(s) == Position.EMPTY) {
+                if (mine[s] < his[s]) {
+                    territory += 1;
+                } else if (his[s] < mine[s]) {
+                    territory -= 1;
+                }
+                mobility += (mine[s] == 1 ? 1 : 0) - (his[s] == 1 ? 1 : 0);
+            }
+        }
+        result[TERRITORY] = territory;
+        result[MOBILITY] = mobility;
+        result[LIBERTY] = liberties(pos, me) - liberties(pos, him);
+        result[REGION] = regions(pos);
+    }
+
+    /** Set DISTANCE[s] to the least number of queen moves (ignoring
+     *  spears) needed by a queen of SIDE in POS to reach square S, or to
+     *  UNREACHED if none can. */
+    private void distances(Position pos, int side, int[] distance) {
+        int[] queue = _queue;
+        int head = 0, tail = 0;
+        Arrays.fill(distance, UNREACHED);
+        for (int k = 0; k < pos.queenCount(side); k += 1) {
+            int q = pos.queen(side, k);
+            distance[q] = 0;
+            queue[tail++] = q;
+        }
+        while (head < tail) {
+            int s = queue[head++];
+            int next = distance[s] + 1;
+            for (int d = 0; d < 8; d += 1) {
+                for (int t = Position.NEIGHBOR[s][d];
+                     t >= 0 && pos.get(t) == Position.EMPTY;
+                     t = Position.NEIGHBOR[t][d]) {
+                    if (distance[t] == UNREACHED) {
+                        distance[t] = next;
+                        queue[tail++] = t;
+                    }
+                }
+            }
+        }
+    }
+
+    /** Return the number of empty squares adjacent to the queens of SIDE
+     *  in POS, counted once for each adjacent queen. */
+    private static int liberties(Position pos, int side) {
+        int count = 0;
+        for (int k = 0; k < pos.queenCount(side); k += 1) {
+            int[] next = Position.NEIGHBOR[pos.queen(side, k)];
+            for (int d = 0; d < 8; d += 1) {
+                if (next[d] >= 0 && pos.get(next[d]) == Position.EMPTY) {
+                    count += 1;
+                }
+            }
+        }
+        return count;
+    }
+
+    /** Return the number of empty squares of POS in regions bordered only
+     *  by queens of the side to move, less the number in regions
+     *  bordered only by the opponent's. */
+    private int regions(Position pos) {
+        int[] label = _label, queue = _queue;
+        int mover = pos.side() == 0 ? Position.WHITE : Position.BLACK;
+        Arrays.fill(label, 0);
+        int result = 0, regions = 0;
+        for (int start = 0; start < Position.SQUARES; start += 1) {
+            if (pos.get(start) != Position.EMPTY || label[start] != 0) {
+                continue;
+            }
+            regions += 1;
+            int head = 0, tail = 0, borders = 0;
+            label[start] = regions;
+            queue[tail++] = start;
+            while (head < tail) {
+                int[] next = Position.NEIGHBOR[queue[head++]];
+                for (int d = 0; d < 8; d += 1) {
+                    int t = next[d];
+                    if (t < 0) {
+                        continue;
+                    }
+                    int contents = pos.get(t);
+                    if (contents == Position.EMPTY && label[t] == 0) {
+                        label[t] = regions;
+                        queue[tail++] = t;
+                    } else if (contents == Position.WHITE
+                               || contents == Position.BLACK) {
+                        borders |= contents == mover ? MINE : HIS;
+                    }
+                }
+            }
+            if (borders == MINE) {
+                result += tail;
+            } else if (borders == HIS) {
+                result -= tail;
+            }
+        }
+        return result;
+    }
+
+    /** Read a weights file named NAME, which contains lines of the form
+     *  "FEATURE WEIGHT", and return the weights it gives, using the
+     *  default weights for features it does not mention. */
+    static double[] read(Path name) throws IOException {
+        double[] weights = DEFAULT_WEIGHTS.clone();
+        for (String line : Files.readAllLines(name)) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length == 1 && fields[0].isEmpty()) {
+                continue;
+            }
+            int i = Arrays.asList(NAMES).indexOf(fields[0]);
+            if (i < 0 || fields.length != 2) {
+                throw error("bad line in weights file: %s", line);
+            }
+            try {
+                weights[i] = Double.parseDouble(fields[1]);
+            } catch (NumberFormatException excp) {
+                throw error("bad weight: %s", fields[1]);
+            }
+        }
+        return weights;
+    }
+
+    /** Write WEIGHTS to the file named NAME in the format read by
+     *  read. */
+    static void write(Path name, double[] weights) throws IOException {
+        try (PrintWriter out =
+             new PrintWriter(Files.newBufferedWriter(name))) {
+            for (int i = 0; i < FEATURES; i += 1) {
+                out.printf("%s %.6f%n", NAMES[i], weights[i]);
+            }
+        }
+    }
+
+    /** Distance of a square that cannot be reached. */
+    private static final int UNREACHED = Position.SQUARES;
+
+    /** Bits recording which sides' queens border a region. */
+    private static final int MINE = 1, HIS = 2;
+
+    /** My weights. */
+    private final double[] _weights;
+    /** Scratch storage for features. */
+    private final double[] _features = new double[FEATURES];
+    /** Scratch storage for the queen distances of each side. */
+    private final int[][] _distance = new int[2][Position.SQUARES];
+    /** Scratch storage for region labels. */
+    private final int[] _label = new int[Position.SQUARES];
+    /** Scratch storage for search queues. */
+    private final int[] _queue = new int[Position.SQUARES];
+}
@@ -38,6 +38,7 @@ class GUI extends TopLevel implements View, Reporter {
 
     /** Response to "new" button click. */
     private void newGame(String dummy) {
+        hurry();
         _pendingCommands.offer("manual white");
         _pendingCommands.offer("new");
     }
@@ -64,9 +65,25 @@ class GUI extends TopLevel implements View, Reporter {
 
     /** Response to "Quit" button click. */
     private void quit(String dummy) {
+        hurry();
         _pendingCommands.offer("quit");
     }
 
+    /** Arrange for New and Quit to call HURRY (if not null) before
+     *  queueing their commands, so as to cut short a search that would
+     *  otherwise delay them. */
+    void setHurry(Runnable hurry) {
+        _hurry = hurry;
+    }
+
+    /** Cut short any search in progress, as arranged by setHurry. */
+    private void hurry() {
+        Runnable hurry = _hurry;
+        if (hurry != null) {
+            hurry.run();
+        }
+    }
+
     /** Pattern describing the 'seed' command's arguments. */
     private static final Pattern SEED_PATN =
         Pattern.compile("\\s*(-?\\d{1,18})\\s*$");
@@ -123,6 +140,9 @@ class GUI extends TopLevel implements View, Reporter {
     /** The board widget. */
     private BoardWidget _widget;
 
+    /** Action cutting short any search in progress, or null. */
+    private volatile Runnable _hurry;
+
     /** Queue of pending commands resulting from menu clicks and moves on the
      *  board.  We use a blocking queue because the responses to clicks
      *  on the board and on menus happen in parallel to the methods that
@@ -0,0 +1,303 @@
+package amazons;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/** A log of the commands given to a Controller, and optionally of the
+ *  moves of its games in a compact binary form.  Normally, entries are
+ *  put on a bounded queue and written in batches by a background
+ *  thread, which flushes them to the files after every so many
+ *  commands, every so many milliseconds, at the end of each game, and
+ *  when the log is closed, as configured.  (Those adding entries wait
+ *  only when the queue is full, and stop waiting with an exception if
+ *  the writer thread fails.)  A durable log instead writes each
+ *  entry itself and forces it to storage before returning, so that
+ *  nothing logged is lost in a crash.
+ *
+ *  The binary record is a sequence of games, each a NEW_GAME byte
+ *  followed by three bytes per move: the indices of the squares moved
+ *  from and to and of the spear.
+ *  @author Sasha Manghise
+ */
+final class GameLog {
+
+    /** Marker for the start of a game in the binary record. */
+    static final byte NEW_GAME = (byte) 0xff;
+
+    /** Default interval between flushes, in milliseconds. */
+    static final long DEFAULT_FLUSH_MILLIS = 1000;
+
+    /** A log writing commands as text to the file named TEXT and, if
+     *  BINARY is not null, moves to the file named BINARY.  It flushes
+     *  after every FLUSHCOMMANDS commands and at least every FLUSHMILLIS
+     *  milliseconds, in each case if positive, as well as at the end of
+     *  each game and when closed.  If DURABLE, it instead writes and
+     *  forces each entry to storage before returning. */
+    GameLog(Path text, Path binary, int flushCommands, long flushMillis,
+            boolean durable) throws IOException {
+        _text = open(text);
+        _binary = binary == null ? null : open(binary);
+        _flushCommands = flushCommands;
+        _flushMillis = flushMillis;
+        _durable = durable;
+        _lastFlush = System.currentTimeMillis();
+        put(NEW_GAME_ITEM);
+        if (!durable) {
+            _writer = new Thread(this::writeAll, "game log");
+            _writer.setDaemon(true);
+            _writer.start();
+        }
+    }
+
+    /** Log the command CMND. */
+    void command(String cmnd) {
+        add(cmnd);
+    }
+
+    /** Log MOVE, which has been made, in the binary record. */
+    void move(Move move) {
+        if (_binary != null) {
+            add(move);
+        }
+    }
+
+    /** Record the start of a new game. */
+    void newGame() {
+        if (_binary != null) {
+            add(NEW_GAME_ITEM);
+        }
+    }
+
+    /** Record the end of a game, which flushes the log. */
+    void endGame() {
+        add(END_GAME);
+    }
+
+    /** Write all entries, and close the log. */
+    void close() {
+        add(CLOSE);
+        if (_writer != null) {
+            try {
+                _writer.join();
+            } catch (InterruptedException excp) {
+                throw new IllegalStateException("interrupted");
+            }
+        }
+        check();
+    }
+
+    /** Log ITEM: a String command, a Move, or one of the markers
+     *  NEW_GAME_ITEM, END_GAME, or CLOSE. */
+    private void add(Object item) {
+        check();
+        if (_durable) {
+            synchronized (this) {
+                try {
+                    if (put(item)) {
+                        closeFiles();
+                    } else {
+                        flush();
+                    }
+                } catch (IOException excp) {
+                    _failure = excp;
+                }
+            }
+        } else {
+            try {
+                while (!_queue.offer(item, FAILURE_CHECK_MILLIS,
+                                     TimeUnit.MILLISECONDS)) {
+                    check();
+                }
+            } catch (InterruptedException excp) {
+                throw new IllegalStateException("interrupted");
+            }
+        }
+        check();
+    }
+
+    /** Throw an exception if writing the log has failed. */
+    private void check() {
+        if (_failure != null) {
+            throw new IllegalStateException("could not write log: "
+                                            + _failure.getMessage());
+        }
+    }
+
+    /** The body of the writer thread: write batches of entries from the
+     *  queue, flushing as configured, until the log is closed. */
+    private void writeAll() {
+        List<Object> batch = new ArrayList<>();
+        try {
+            while (true) {
+                Object item;
+                if (_flushMillis > 0) {
+                    long wait = _lastFlush + _flushMillis
+                        - System.currentTimeMillis();
+                    item = _queue.poll(Math.max(wait, 1),
+                                       TimeUnit.MILLISECONDS);
+                } else {
+                    item = _queue.take();
+                }
+                if (item != null) {
+                    batch.add(item);
+                    _queue.drainTo(batch);
+                }
+                for (Object entry : batch) {
+                    if (put(entry)) {
+                        closeFiles();
+                        return;
+                    }
+                }
+                batch.clear();
+                if (_flushMillis > 0 && System.currentTimeMillis()
+                    >= _lastFlush + _flushMillis) {
+                    flush();
+                }
+            }
+        } catch (IOException excp) {
+            _failure = excp;
+        } catch (InterruptedException excp) {
+            _failure = new IOException("interrupted");
+        }
+    }
+
+    /** Add ITEM (as for add) to the pending output, flushing it as
+     *  configured, and return true iff ITEM is CLOSE. */
+    private boolean put(Object item) throws IOException {
+        if (item == CLOSE) {
+            return true;
+        } else if (item == END_GAME) {
+            flush();
+        } else if (item == NEW_GAME_ITEM) {
+            putBinary(NEW_GAME);
+        } else if (item instanceof Move) {
+            Move move = (Move) item;
+            putBinary((byte) move.from().index());
+            putBinary((byte) move.to().index());
+            putBinary((byte) move.spear().index());
+        } else {
+            _pendingText.append((String) item).append('\n');
+            _commands += 1;
+            if (_flushCommands > 0 && _commands >= _flushCommands) {
+                flush();
+            }
+        }
+        return false;
+    }
+
+    /** Add B to the pending binary output, if there is a binary
+     *  record. */
+    private void putBinary(byte b) throws IOException {
+        if (_binary == null) {
+            return;
+        }
+        if (!_pendingBinary.hasRemaining()) {
+            writeBinary();
+        }
+        _pendingBinary.put(b);
+    }
+
+    /** Write all pending output to the files, forcing it to storage if
+     *  I am durable. */
+    private void flush() throws IOException {
+        if (_pendingText.length() > 0) {
+            byte[] text =
+                _pendingText.toString().getBytes(StandardCharsets.UTF_8);
+            write(_text, ByteBuffer.wrap(text));
+            _pendingText.setLength(0);
+        }
+        if (_binary != null) {
+            writeBinary();
+        }
+        if (_durable) {
+            _text.force(false);
+            if (_binary != null) {
+                _binary.force(false);
+            }
+        }
+        _commands = 0;
+        _lastFlush = System.currentTimeMillis();
+    }
+
+    /** Flush and close the files. */
+    private void closeFiles() throws IOException {
+        flush();
+        _text.close();
+        if (_binary != null) {
+            _binary.close();
+        }
+    }
+
+    /** Write the pending binary record. */
+    private void writeBinary() throws IOException {
+        _pendingBinary.flip();
+        write(_binary, _pendingBinary);
+        _pendingBinary.clear();
+    }
+
+    /** Write the remaining contents of BUFFER to OUT. */
+    private static void write(FileChannel out, ByteBuffer buffer)
+        throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /** Return a channel writing the file named NAME from its start. */
+    private static FileChannel open(Path name) throws IOException {
+        return FileChannel.open(name, StandardOpenOption.CREATE,
+                                StandardOpenOption.WRITE,
+                                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /** Markers on the queue. */
+    private static final Object
+        NEW_GAME_ITEM = new Object(), END_GAME = new Object(),
+        CLOSE = new Object();
+
+    /** Maximum number of entries waiting to be written. */
+    private static final int QUEUE_CAPACITY = 4096;
+
+    /** Interval at which those waiting for room in the queue check
+     *  whether the writer thread has failed, in milliseconds. */
+    private static final long FAILURE_CHECK_MILLIS = 100;
+
+    /** Size of the buffer for the binary record. */
+    private static final int BINARY_BUFFER_SIZE = 1 << 16;
+
+    /** Entries waiting for the writer thread. */
+    private final BlockingQueue<Object> _queue =
+        new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    /** The writer thread, or null if I am durable. */
+    private Thread _writer;
+    /** The text log. */
+    private final FileChannel _text;
+    /** The binary record, or null if none. */
+    private final FileChannel _binary;
+    /** Text not yet written. */
+    private final StringBuilder _pendingText = new StringBuilder();
+    /** Binary record not yet written. */
+    private final ByteBuffer _pendingBinary =
+        ByteBuffer.allocate(BINARY_BUFFER_SIZE);
+    /** Commands between flushes, or 0 if not limited. */
+    private final int _flushCommands;
+    /** Milliseconds between flushes, or 0 if not limited. */
+    private final long _flushMillis;
+    /** True iff each entry is forced to storage as it is added. */
+    private final boolean _durable;
+    /** Commands added since the last flush. */
+    private int _commands;
+    /** Time of the last flush, in milliseconds since the epoch. */
+    private long _lastFlush;
+    /** The error that stopped the log, if any. */
+    private volatile IOException _failure;
+}
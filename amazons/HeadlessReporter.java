@@ -0,0 +1,67 @@
+package amazons;
+
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Formatter;
+
+/** A Reporter for runs without a display or a person watching, such as
+ *  batches of self-play games.  It writes to a stream that, unlike the
+ *  usual standard output, is not flushed after each line, but only when
+ *  its large buffer fills or when the Controller quits, so that output
+ *  goes out in large blocks.  All other output of the program should go
+ *  to the same stream (see stream), so that its order is preserved.
+ *  Notes are formatted into a reused buffer; error messages go to the
+ *  standard error, after the output so far has been flushed.
+ *  @author Sasha Manghise
+ */
+class HeadlessReporter implements Reporter {
+
+    /** Size of the output buffer, in bytes. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** A reporter writing to OUT, which should be a stream returned by
+     *  stream. */
+    HeadlessReporter(PrintStream out) {
+        _out = out;
+    }
+
+    /** Return a PrintStream that writes to OUT through a buffer of
+     *  BUFFER_SIZE bytes, which is written only when full or flushed,
+     *  and in any case when the program exits. */
+    static PrintStream stream(OutputStream out) {
+        PrintStream result =
+            new PrintStream(new BufferedOutputStream(out, BUFFER_SIZE),
+                            false);
+        Runtime.getRuntime().addShutdownHook(new Thread(result::flush));
+        return result;
+    }
+
+    @Override
+    public void reportError(String fmt, Object... args) {
+        _out.flush();
+        System.err.printf(fmt, args);
+        System.err.println();
+    }
+
+    @Override
+    public void reportNote(String fmt, Object... args) {
+        _text.setLength(0);
+        _text.append("* ");
+        _formatter.format(fmt, args);
+        _text.append('\n');
+        _out.append(_text);
+    }
+
+    @Override
+    public void reportMove(Move move) {
+        _out.append("* ").append(move.toString()).append('\n');
+    }
+
+    /** The output stream. */
+    private final PrintStream _out;
+    /** Buffer for formatting notes. */
+    private final StringBuilder _text = new StringBuilder();
+    /** Formatter writing into _text. */
+    private final Formatter _formatter = new Formatter(_text);
+}
@@ -0,0 +1,287 @@
+package amazons;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+
+/** A generator of load for a Server on this machine: a number of
+ *  simulated clients, each over its own loopback connection, that play
+ *  random moves for WHITE against the server's engine, starting a new
+ *  game whenever one ends.  All clients run on one thread, with a
+ *  non-blocking Selector.  It reports the number of connections made and
+ *  the distribution of the latency of the engine's replies: the time
+ *  from sending each move to receiving the reply.  Moves refused because
+ *  the server is busy are requested again after RETRY_MILLIS
+ *  milliseconds, and the wait counts towards their latency.
+ *  @author Sasha Manghise
+ */
+final class LoadClient {
+
+    /** Percentiles of latency reported. */
+    static final double[] PERCENTILES = { 50, 90, 99, 99.9, 100 };
+
+    /** A generator of CLIENTS clients of the server on loopback port
+     *  PORT. */
+    LoadClient(int port, int clients) {
+        _port = port;
+        _clients = clients;
+    }
+
+    /** Run my clients for MILLIS milliseconds, and report the results on
+     *  the standard output. */
+    void run(long millis) throws IOException {
+        long start = System.nanoTime();
+        try (Selector selector = Selector.open()) {
+            InetSocketAddress address =
+                new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                      _port);
+            for (int i = 0; i < _clients; i += 1) {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                channel.connect(address);
+                Client client = new Client(channel, i + 1);
+                client._key = channel.register(selector,
+                                               SelectionKey.OP_CONNECT,
+                                               client);
+            }
+            long deadline = start + millis * 1_000_000;
+            long now;
+            while ((now = System.nanoTime()) < deadline) {
+                while (!_retries.isEmpty() && _retries.peek()._retry <= now) {
+                    Client client = _retries.remove();
+                    if (client._key.isValid()) {
+                        client.send("auto black\n");
+                    }
+                }
+                long wake = _retries.isEmpty() ? deadline
+                    : Math.min(deadline, _retries.peek()._retry);
+                selector.select(Math.max(1, (wake - now) / 1_000_000));
+                for (SelectionKey key : selector.selectedKeys()) {
+                    Client client = (Client) key.attachment();
+                    try {
+                        if (key.isValid() && key.isConnectable()) {
+                            client.connect();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            client.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            client.write();
+                        }
+                    } catch (IOException excp) {
+                        client.fail();
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+        }
+        report((System.nanoTime() - start) * 1e-9);
+    }
+
+    /** Return the number of clients that connected. */
+    int connected() {
+        return _connected;
+    }
+
+    /** Return the number of engine replies received. */
+    int replies() {
+        return _count;
+    }
+
+    /** Return the number of errors reported by the server. */
+    int errors() {
+        return _errors;
+    }
+
+    /** Record a reply latency of NANOS nanoseconds. */
+    private void record(long nanos) {
+        if (_count == _latencies.length) {
+            _latencies = Arrays.copyOf(_latencies, 2 * _count);
+        }
+        _latencies[_count] = nanos;
+        _count += 1;
+    }
+
+    /** Report the results of a run of SECONDS seconds. */
+    private void report(double seconds) {
+        System.out.printf("%d clients: %d connected, %d failed; %d engine"
+                          + " replies in %.1f s (%.0f/s), %d errors%n",
+                          _clients, _connected, _failed, _count, seconds,
+                          _count / seconds, _errors);
+        if (_count == 0) {
+            return;
+        }
+        long[] sorted = Arrays.copyOf(_latencies, _count);
+        Arrays.sort(sorted);
+        StringBuilder line = new StringBuilder("latency (ms):");
+        for (double p : PERCENTILES) {
+            int k = (int) Math.min(_count - 1,
+                                   Math.ceil(p / 100 * _count) - 1);
+            line.append(String.format(" p%s %.2f",
+                                      p == (int) p ? String.valueOf((int) p)
+                                      : String.valueOf(p),
+                                      sorted[Math.max(k, 0)] * 1e-6));
+        }
+        System.out.println(line);
+    }
+
+    /** One simulated client. */
+    private class Client {
+
+        /** A client over CHANNEL whose moves are chosen by random
+         *  playouts seeded with SEED. */
+        Client(SocketChannel channel, long seed) {
+            _channel = channel;
+            _random = new Playout(seed);
+        }
+
+        /** Finish connecting, and make my first move. */
+        void connect() throws IOException {
+            _channel.finishConnect();
+            _connected += 1;
+            _key.interestOps(SelectionKey.OP_READ);
+            move();
+        }
+
+        /** Read and act on the server's replies. */
+        void read() throws IOException {
+            _input.clear();
+            int n = _channel.read(_input);
+            if (n < 0) {
+                fail();
+                return;
+            }
+            for (int k = 0; k < n; k += 1) {
+                char c = (char) (_input.get(k) & 0xff);
+                if (c == '\n') {
+                    reply(_line.toString());
+                    _line.setLength(0);
+                } else {
+                    _line.append(c);
+                }
+            }
+        }
+
+        /** Act on the reply LINE. */
+        void reply(String line) {
+            if (line.startsWith("Error:")) {
+                _errors += 1;
+                _retry = System.nanoTime() + RETRY_MILLIS * 1_000_000;
+                _retries.add(this);
+                return;
+            } else if (!line.startsWith("* ")) {
+                return;
+            }
+            int move = Move.pack(line.substring(2));
+            if (move >= 0) {
+                record(System.nanoTime() - _sent);
+                _position.makeMove(move);
+                if (_position.winner() == null) {
+                    move();
+                }
+            } else if (line.endsWith("wins.")) {
+                _position.init();
+                send("new\n");
+                move();
+            }
+        }
+
+        /** Send a random move. */
+        void move() {
+            int move = _random.randomMove(_position);
+            _position.makeMove(move);
+            _sent = System.nanoTime();
+            send(Position.toMove(move) + "\n");
+        }
+
+        /** Send TEXT. */
+        void send(String text) {
+            _output.append(text);
+            try {
+                write();
+            } catch (IOException excp) {
+                fail();
+            }
+        }
+
+        /** Write as much pending output as possible. */
+        void write() throws IOException {
+            if (!_pending.hasRemaining() && _output.length() > 0) {
+                _pending = ByteBuffer.wrap(_output.toString()
+                                           .getBytes(StandardCharsets.UTF_8));
+                _output.setLength(0);
+            }
+            _channel.write(_pending);
+            _key.interestOps(_pending.hasRemaining() || _output.length() > 0
+                             ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+                             : SelectionKey.OP_READ);
+        }
+
+        /** Abandon this client after a failure. */
+        void fail() {
+            _key.cancel();
+            try {
+                _channel.close();
+            } catch (IOException excp) {
+                /* Ignore. */
+            }
+            _failed += 1;
+        }
+
+        /** My connection. */
+        private final SocketChannel _channel;
+        /** My connection's registration with the selector. */
+        private SelectionKey _key;
+        /** Source of my moves. */
+        private final Playout _random;
+        /** The current game. */
+        private final Position _position = new Position();
+        /** Buffer for input. */
+        private final ByteBuffer _input = ByteBuffer.allocate(INPUT_SIZE);
+        /** The incomplete last line of input. */
+        private final StringBuilder _line = new StringBuilder();
+        /** Output not yet encoded. */
+        private final StringBuilder _output = new StringBuilder();
+        /** Encoded output not yet sent. */
+        private ByteBuffer _pending = ByteBuffer.allocate(0);
+        /** Time at which my last move was sent, from System.nanoTime. */
+        private long _sent;
+        /** Time at which to ask again for a move refused by the server,
+         *  from System.nanoTime. */
+        private long _retry;
+    }
+
+    /** Delay before asking again for a move refused by the server, in
+     *  milliseconds. */
+    private static final long RETRY_MILLIS = 100;
+
+    /** Size of each client's input buffer, in bytes. */
+    private static final int INPUT_SIZE = 1024;
+
+    /** The server's port. */
+    private final int _port;
+    /** Number of clients. */
+    private final int _clients;
+    /** Numbers of clients connected and failed. */
+    private int _connected, _failed;
+    /** Number of errors reported by the server. */
+    private int _errors;
+    /** Latencies of replies, in nanoseconds. */
+    private long[] _latencies = new long[1 << 10];
+    /** Number of latencies recorded. */
+    private int _count;
+    /** Clients waiting to ask again for moves, in order of _retry. */
+    private final Queue<Client> _retries = new ArrayDeque<>();
+}
@@ -1,10 +1,20 @@
 package amazons;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import static amazons.Utils.error;
 
@@ -15,34 +25,188 @@ import ucb.util.CommandArgs;
  */
 public class Main {
 
-    /** The main program.  ARGS may contain the option --display. */
+    /** The command-line options (in the notation of CommandArgs). */
+    private static final String OPTIONS =
+        "--display --headless --protocol --mcts --threads={0,1} --leaf={0,1}"
+        + " --ponder --move-time={0,1} --bench"
+        + " --book={0,1} --build-book={0,1} --cache={0,1}"
+        + " --stats --stats-file={0,1}"
+        + " --tournament={0,1} --first={0,1} --second={0,1} --seed={0,1}"
+        + " --sprt={0,1} --datagen={0,1} --shards={0,1}"
+        + " --weights={0,1} --tune={0,1} --replay"
+        + " --sessions={0,1} --engine={0,1} --serve={0,1}"
+        + " --load={0,1} --clients={0,1} --duration={0,1}"
+        + " --log={0,1} --log-binary={0,1} --log-flush={0,1} --log-durable"
+        + " --playouts={0,1} --={0,2}";
+
+    /** Engine for --sessions and --serve when none is given. */
+    private static final String DEFAULT_SESSION_ENGINE = "mcts:1000";
+
+    /** Duration of a --load run when none is given, in seconds. */
+    private static final double DEFAULT_LOAD_SECONDS = 10;
+
+    /** Probability of each kind of error allowed by a tournament's
+     *  SPRT. */
+    private static final double SPRT_ERROR = 0.05;
+
+    /** The usage message. */
+    private static final String USAGE =
+        "Usage: java amazons.Main [--display | --headless | --protocol]"
+        + " [--mcts]"
+        + " [--threads=N] [--leaf=N] [--ponder] [--move-time=MS]"
+        + " [--book=FILE]"
+        + " [--build-book=FILE] [--cache=FILE] [--stats] [--stats-file=FILE]"
+        + " [--log=FILE [--log-binary=FILE] [--log-flush=N|Nms|game]"
+        + " [--log-durable]]"
+        + " [--playouts=SECONDS] [--bench]"
+        + " [--tournament=GAMES --first=ENGINE --second=ENGINE"
+        + " [--seed=N] [--sprt=ELO0:ELO1]]"
+        + " [--datagen=DIR [--shards=N]] [--weights=FILE] [--tune=DIR]"
+        + " [--replay INPUT] [--sessions=N [--engine=ENGINE] INPUT]"
+        + " [--serve=PORT [--engine=ENGINE]]"
+        + " [--load=PORT [--clients=N] [--duration=SECONDS]]"
+        + " [INPUT [OUTPUT]]";
+
+    /** The main program.  ARGS may contain the options --display,
+     *  --headless (write output in large blocks, for batch runs; see
+     *  HeadlessReporter), --protocol (take commands from a controlling
+     *  program by the engine protocol; see Protocol), --mcts (use Monte
+     *  Carlo tree search for automated players, with --threads=N search
+     *  threads and --leaf=N parallel playouts per leaf), --ponder (let
+     *  automated players think while a manual player chooses a move),
+     *  --move-time=MS (limit the searches of the alpha-beta AI to MS
+     *  milliseconds per move),
+     *  --book=FILE (play openings from a book), --build-book=FILE
+     *  (create a book and exit), --cache=FILE (remember search results
+     *  in FILE from one run to the next), --stats (report search
+     *  statistics after each move), --stats-file=FILE (write them to
+     *  FILE, as JSON if FILE ends in .json and as CSV otherwise),
+     *  --bench (run the standard benchmark and exit), --tournament=GAMES
+     *  (play a match of GAMES games between the engines described by
+     *  --first and --second, --threads games at a time, and exit; see
+     *  Tournament),
+     *  --datagen=DIR (write training data from --shards shards of
+     *  self-play games to DIR, --threads shards at a time, and exit; see
+     *  DataGen), --weights=FILE (evaluate positions with the weights in
+     *  FILE), --tune=DIR (fit the evaluation weights to the data in
+     *  DIR, starting from and replacing those in the --weights file, if
+     *  any, and exit; see Tuner), --replay (check the moves of the
+     *  game scripts in INPUT as quickly as possible, and exit; see
+     *  Replay), --sessions=N (play the script INPUT in N concurrent
+     *  Sessions, with engine moves chosen by the --engine engine on
+     *  --threads threads, and exit; see SessionHost), --serve=PORT
+     *  (serve games to clients connecting to PORT, with --engine and
+     *  --threads as for --sessions; see Server), --load=PORT (run
+     *  --clients clients of the server on PORT of this machine for
+     *  --duration seconds, report their replies' latency, and exit; see
+     *  LoadClient), and --log=FILE
+     *  (copy all commands to FILE, and the moves of each game to the
+     *  --log-binary file, if any, as configured by --log-flush and
+     *  --log-durable; see openLog and GameLog). */
     public static void main(String... args) {
 
-        CommandArgs options =
-            new CommandArgs("--display --log={0,1} --={0,2}", args);
+        CommandArgs options = new CommandArgs(OPTIONS, args);
         if (!options.ok()) {
-            System.err.println("Usage: java amazons.Main [--display]"
-                               + " [--log=FILE] [INPUT [OUTPUT]]");
+            System.err.println(USAGE);
             System.exit(1);
         }
 
+        if (options.contains("--build-book")) {
+            buildBook(options.getFirst("--build-book"),
+                      count(options, "--threads"));
+            System.exit(0);
+        }
+
+        if (options.contains("--tournament")) {
+            runTournament(options);
+            System.exit(0);
+        }
+
+        if (options.contains("--datagen")) {
+            generateData(options);
+            System.exit(0);
+        }
+
+        if (options.contains("--tune")) {
+            tune(options);
+            System.exit(0);
+        }
+
+        if (options.contains("--serve")) {
+            serve(options);
+            System.exit(0);
+        }
+
+        if (options.contains("--load")) {
+            generateLoad(options);
+            System.exit(0);
+        }
+
+        if (options.contains("--playouts")) {
+            measurePlayouts(options.getFirst("--playouts"));
+            System.exit(0);
+        }
+
         List<String> files = options.get("--");
-        if (!files.isEmpty()) {
+        if (options.contains("--replay")) {
+            if (files.isEmpty()) {
+                throw error("--replay requires an INPUT file");
+            }
             try {
-                System.setIn(new FileInputStream(files.get(0)));
-                if (files.size() > 1) {
-                    FileOutputStream out = new FileOutputStream(files.get(1));
-                    System.setOut(new PrintStream(out, true));
-                }
+                new Replay().run(Paths.get(files.get(0)));
             } catch (IOException excp) {
-                System.err.printf("Could not open file: %s%n",
+                System.err.printf("Could not replay %s: %s%n", files.get(0),
                                   excp.getMessage());
                 System.exit(1);
             }
+            System.exit(0);
+        }
+
+        if (options.contains("--sessions")) {
+            if (files.isEmpty()) {
+                throw error("--sessions requires an INPUT file");
+            }
+            runSessions(options, Paths.get(files.get(0)));
+            System.exit(0);
+        }
+
+        boolean headless = options.contains("--headless");
+        if (headless && options.contains("--display")) {
+            throw error("--headless and --display are incompatible");
+        }
+        boolean protocol = options.contains("--protocol");
+        if (protocol && (headless || options.contains("--display")
+                         || options.contains("--mcts"))) {
+            throw error("--protocol is incompatible with --display,"
+                        + " --headless, and --mcts");
+        }
+        try {
+            if (!files.isEmpty()) {
+                System.setIn(new FileInputStream(files.get(0)));
+            }
+            FileOutputStream out =
+                files.size() > 1 ? new FileOutputStream(files.get(1))
+                : headless ? new FileOutputStream(FileDescriptor.out)
+                : null;
+            if (headless) {
+                System.setOut(HeadlessReporter.stream(out));
+            } else if (out != null) {
+                System.setOut(new PrintStream(out, true));
+            }
+        } catch (IOException excp) {
+            System.err.printf("Could not open file: %s%n",
+                              excp.getMessage());
+            System.exit(1);
         }
 
         Controller control = getController(options);
-        System.out.println("Amazons 61B, version 1.0");
+        if (options.contains("--bench")) {
+            Bench.run(control, Bench.DEFAULT_DEPTH);
+            System.exit(0);
+        }
+        if (!protocol) {
+            System.out.println("Amazons 61B, version 1.0");
+        }
 
         try {
             control.play();
@@ -54,11 +218,289 @@ public class Main {
 
     }
 
+    /** Write an opening book to the file named NAME, searching THREADS
+     *  positions at a time. */
+    private static void buildBook(String name, int threads) {
+        try {
+            OpeningBook.build(Paths.get(name), OpeningBook.BUILD_PLIES,
+                              OpeningBook.BUILD_WIDTH,
+                              OpeningBook.BUILD_ITERATIONS, threads);
+        } catch (IOException excp) {
+            System.err.printf("Could not build opening book: %s%n",
+                              excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Play the match of engines described by OPTIONS. */
+    private static void runTournament(CommandArgs options) {
+        if (!options.contains("--first") || !options.contains("--second")) {
+            throw error("--tournament requires --first and --second");
+        }
+        long seed = 1;
+        Tournament match;
+        try {
+            if (options.contains("--seed")) {
+                seed = Long.parseLong(options.getFirst("--seed"));
+            }
+            match = new Tournament(options.getFirst("--first"),
+                                   options.getFirst("--second"),
+                                   count(options, "--tournament"),
+                                   options.contains("--threads")
+                                   ? count(options, "--threads")
+                                   : Runtime.getRuntime()
+                                     .availableProcessors(),
+                                   seed);
+            if (options.contains("--sprt")) {
+                String[] bounds = options.getFirst("--sprt").split(":");
+                match.setSprt(Double.parseDouble(bounds[0]),
+                              Double.parseDouble(bounds[1]),
+                              SPRT_ERROR, SPRT_ERROR);
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw error("bad --seed or --sprt value");
+        }
+        match.run();
+    }
+
+    /** Write the training data described by OPTIONS. */
+    private static void generateData(CommandArgs options) {
+        DataGen generator =
+            new DataGen(Paths.get(options.getFirst("--datagen")),
+                        DataGen.DEFAULT_ITERATIONS,
+                        options.contains("--threads")
+                        ? count(options, "--threads")
+                        : Runtime.getRuntime().availableProcessors());
+        try {
+            generator.run(count(options, "--shards"));
+        } catch (IOException excp) {
+            System.err.printf("Could not generate data: %s%n",
+                              excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Fit evaluation weights as described by OPTIONS. */
+    private static void tune(CommandArgs options) {
+        Path weightsFile = options.contains("--weights")
+            ? Paths.get(options.getFirst("--weights")) : null;
+        try {
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> shards =
+                 Files.newDirectoryStream(Paths.get(options.getFirst("--tune")),
+                                          "*.bin")) {
+                shards.forEach(files::add);
+            }
+            if (files.isEmpty()) {
+                throw error("no data to tune on");
+            }
+            double[] weights =
+                weightsFile != null && Files.exists(weightsFile)
+                ? Evaluation.read(weightsFile) : Evaluation.DEFAULT_WEIGHTS;
+            Tuner tuner = new Tuner(files, options.contains("--threads")
+                                    ? count(options, "--threads")
+                                    : Runtime.getRuntime()
+                                      .availableProcessors());
+            System.out.printf("%d positions, initial loss %.6f%n",
+                              tuner.records(), tuner.loss(weights));
+            weights = tuner.tune(weights, Tuner.DEFAULT_PASSES);
+            for (int i = 0; i < Evaluation.FEATURES; i += 1) {
+                System.out.printf("%s %.6f%n", Evaluation.NAMES[i],
+                                  weights[i]);
+            }
+            if (weightsFile != null) {
+                Evaluation.write(weightsFile, weights);
+            }
+        } catch (IOException excp) {
+            System.err.printf("Could not tune weights: %s%n",
+                              excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Play the script in the file named SCRIPT in the number of
+     *  concurrent Sessions given by OPTIONS, discarding their output, and
+     *  report the games finished and the time taken. */
+    private static void runSessions(CommandArgs options, Path script) {
+        String commands;
+        try {
+            commands = Files.readString(script);
+        } catch (IOException excp) {
+            System.err.printf("Could not read %s: %s%n", script,
+                              excp.getMessage());
+            System.exit(1);
+            return;
+        }
+        int sessions = count(options, "--sessions");
+        SessionHost host = sessionHost(options);
+        long start = System.nanoTime();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < sessions; i += 1) {
+            threads.add(host.start(new BufferedReader(
+                                       new StringReader(commands)),
+                                   new WriterReporter(new PrintWriter(
+                                       Writer.nullWriter()))));
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException excp) {
+            throw new IllegalStateException("interrupted");
+        }
+        double seconds = (System.nanoTime() - start) * 1e-9;
+        host.shutdown();
+        System.out.printf("%d sessions on %s threads: %d games finished,"
+                          + " %d moves, %.3f s%n", sessions,
+                          host.virtual() ? "virtual" : "platform",
+                          host.finished(), host.moves(), seconds);
+    }
+
+    /** Return a SessionHost with the engine and number of engine threads
+     *  given by OPTIONS. */
+    private static SessionHost sessionHost(CommandArgs options) {
+        return new SessionHost(options.contains("--engine")
+                               ? options.getFirst("--engine")
+                               : DEFAULT_SESSION_ENGINE,
+                               options.contains("--threads")
+                               ? count(options, "--threads")
+                               : Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Serve games as described by OPTIONS until killed. */
+    private static void serve(CommandArgs options) {
+        try {
+            Server server =
+                new Server(count(options, "--serve"), sessionHost(options));
+            System.out.printf("Serving on port %d%n", server.port());
+            server.run();
+        } catch (IOException excp) {
+            System.err.printf("Could not serve: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Run the clients of a local server described by OPTIONS. */
+    private static void generateLoad(CommandArgs options) {
+        double seconds = DEFAULT_LOAD_SECONDS;
+        if (options.contains("--duration")) {
+            try {
+                seconds = Double.parseDouble(options.getFirst("--duration"));
+            } catch (NumberFormatException excp) {
+                throw error("bad --duration");
+            }
+        }
+        try {
+            new LoadClient(count(options, "--load"),
+                           count(options, "--clients"))
+                .run((long) (seconds * 1000));
+        } catch (IOException excp) {
+            System.err.printf("Could not generate load: %s%n",
+                              excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Report the rate of random playouts from the initial position on
+     *  each available processor, measured over SECONDS seconds. */
+    private static void measurePlayouts(String seconds) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        long millis;
+        try {
+            millis = (long) (Double.parseDouble(seconds) * 1000);
+        } catch (NumberFormatException excp) {
+            throw error("bad number of seconds: %s", seconds);
+        }
+        long[] counts = Playout.measure(threads, millis);
+        long total = 0;
+        for (int i = 0; i < threads; i += 1) {
+            System.out.printf("thread %d: %.0f playouts/s%n", i,
+                              counts[i] * 1000.0 / millis);
+            total += counts[i];
+        }
+        System.out.printf("total: %.0f playouts/s on %d threads%n",
+                          total * 1000.0 / millis, threads);
+    }
+
+    /** Return the positive integer value of option NAME in OPTIONS, or 1
+     *  if it is absent. */
+    private static int count(CommandArgs options, String name) {
+        if (!options.contains(name)) {
+            return 1;
+        }
+        try {
+            int value = Integer.parseInt(options.getFirst(name));
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through. */
+        }
+        throw error("%s must be a positive integer", name);
+    }
+
+    /** Arrange for AI to report its search statistics as requested by
+     *  OPTIONS. */
+    private static void setUpStatistics(AI ai, CommandArgs options) {
+        PrintStream dump = null;
+        boolean json = false;
+        if (options.contains("--stats-file")) {
+            String name = options.getFirst("--stats-file");
+            json = name.endsWith(".json");
+            try {
+                dump = new PrintStream(name);
+            } catch (IOException excp) {
+                throw error("Could not open statistics file");
+            }
+            if (!json) {
+                dump.println(SearchStats.CSV_HEADER);
+            }
+        }
+        ai.reportStatistics(options.contains("--stats"), dump, json);
+    }
+
+    /** Return the game log described by OPTIONS.  --log-flush gives the
+     *  flush policy: every N commands, every N milliseconds (Nms), or
+     *  only at the end of each game (game); by default, the log is
+     *  flushed every GameLog.DEFAULT_FLUSH_MILLIS milliseconds.  In
+     *  any case, it is flushed at the end of each game and on quitting.
+     *  --log-durable forces each command to storage as it is logged. */
+    private static GameLog openLog(CommandArgs options) {
+        int commands = 0;
+        long millis = GameLog.DEFAULT_FLUSH_MILLIS;
+        if (options.contains("--log-flush")) {
+            String policy = options.getFirst("--log-flush");
+            try {
+                if (policy.equals("game")) {
+                    millis = 0;
+                } else if (policy.endsWith("ms")) {
+                    millis = Long.parseLong(policy.substring(0,
+                                            policy.length() - 2));
+                } else {
+                    commands = Integer.parseInt(policy);
+                    millis = 0;
+                }
+            } catch (NumberFormatException excp) {
+                throw error("bad --log-flush policy: %s", policy);
+            }
+        }
+        try {
+            return new GameLog(Paths.get(options.getFirst("--log")),
+                               options.contains("--log-binary")
+                               ? Paths.get(options.getFirst("--log-binary"))
+                               : null,
+                               commands, millis,
+                               options.contains("--log-durable"));
+        } catch (IOException excp) {
+            throw error("Could not open log file");
+        }
+    }
+
     /** Return an appropriate Controller as indicated by OPTIONS. */
     private static Controller getController(CommandArgs options) {
         Player manualPlayer;
         GUI gui;
-        PrintStream log;
+        GameLog log;
         View view;
         Reporter reporter;
 
@@ -70,19 +512,48 @@ public class Main {
             view = gui;
         } else {
             gui = null;
-            reporter = new TextReporter();
+            reporter = options.contains("--headless")
+                ? new HeadlessReporter(System.out) : new TextReporter();
             manualPlayer = new TextPlayer();
             view = new NullView();
         }
-        log = null;
-        if (options.contains("--log")) {
-            try {
-                log = new PrintStream(options.getFirst("--log"));
-            } catch (IOException excp) {
-                throw error("Could not open log file");
+        log = options.contains("--log") ? openLog(options) : null;
+
+        Player autoPlayer;
+        if (options.contains("--mcts")) {
+            autoPlayer = new MonteCarloAI(count(options, "--threads"),
+                                          count(options, "--leaf"));
+        } else {
+            OpeningBook book =
+                options.contains("--book")
+                ? OpeningBook.open(options.getFirst("--book")) : null;
+            AnalysisCache cache =
+                options.contains("--cache")
+                ? AnalysisCache.open(options.getFirst("--cache")) : null;
+            AI ai = new AI(book, cache);
+            setUpStatistics(ai, options);
+            if (options.contains("--move-time")) {
+                ai.setMoveTime(count(options, "--move-time"));
+            }
+            if (options.contains("--weights")) {
+                try {
+                    ai.setWeights(Evaluation.read(
+                        Paths.get(options.getFirst("--weights"))));
+                } catch (IOException excp) {
+                    throw error("Could not read weights file");
+                }
             }
+            autoPlayer = ai;
         }
 
-        return new Controller(view, log, reporter, manualPlayer, new AI());
+        Controller controller =
+            new Controller(view, log, reporter, manualPlayer, autoPlayer);
+        controller.setPonder(options.contains("--ponder"));
+        controller.setHeadless(options.contains("--headless"));
+        controller.setProtocol(options.contains("--protocol"));
+        if (gui != null) {
+            gui.setHurry(controller::hurry);
+        }
+        return controller;
     }
 }
@@ -0,0 +1,176 @@
+package amazons;
+
+/**
+ * A Player that automatically generates moves using Monte Carlo tree
+ * search.
+ *
+ * @author Sasha Manghise
+ */
+class MonteCarloAI extends Player implements Ponderer, MoveChooser {
+
+    /**
+     * Number of nodes in the search tree.
+     */
+    private static final int TREE_CAPACITY = 1 << 18;
+
+    /**
+     * Maximum number of iterations per move.
+     */
+    private static final long ITERATIONS = 1000000;
+
+    /**
+     * Maximum time per move, in milliseconds.
+     */
+    private static final long MOVE_TIME = 3000;
+
+    /**
+     * Interval, in milliseconds, at which to repeat a request to stop
+     * pondering until it takes effect.
+     */
+    private static final long PONDER_POLL = 10;
+
+    /**
+     * A new single-threaded MonteCarloAI with no piece or controller
+     * (intended to produce a template).
+     */
+    MonteCarloAI() {
+        this(1, 1);
+    }
+
+    /**
+     * A new MonteCarloAI with no piece or controller (intended to produce
+     * a template) whose searches use THREADS threads and LEAFPLAYOUTS
+     * parallel playouts per leaf.
+     */
+    MonteCarloAI(int threads, int leafPlayouts) {
+        this(null, null, threads, leafPlayouts);
+    }
+
+    /**
+     * A new MonteCarloAI playing PIECE under control of CONTROLLER, whose
+     * searches use THREADS threads and LEAFPLAYOUTS parallel playouts per
+     * leaf.
+     */
+    MonteCarloAI(Piece piece, Controller controller, int threads,
+                 int leafPlayouts) {
+        super(piece, controller);
+        _threads = threads;
+        _leafPlayouts = leafPlayouts;
+    }
+
+    @Override
+    Player create(Piece piece, Controller controller) {
+        return new MonteCarloAI(piece, controller, _threads, _leafPlayouts);
+    }
+
+    @Override
+    String myMove() {
+        Move move = chooseMove();
+        return move == null ? null : move.toString();
+    }
+
+    @Override
+    public Move chooseMove() {
+        MoveDecisionEvent event = new MoveDecisionEvent();
+        event.begin();
+        Move move = findMove();
+        if (event.shouldCommit()) {
+            event.side = myPiece().toName();
+            event.move = move == null ? null : move.toString();
+            event.source = "mcts";
+            event.nodes = _search.rootVisits();
+            event.commit();
+        }
+        if (move != null) {
+            _controller.reportMove(move);
+        }
+        return move;
+    }
+
+    @Override
+    public void stopChoosing() {
+        MonteCarloSearch search = _search;
+        if (search != null) {
+            search.stop();
+        }
+    }
+
+    @Override
+    public void resetChoosing() {
+        search().resetStop();
+    }
+
+    @Override
+    public void startPondering(Position position) {
+        stopPondering();
+        search().setRoot(position);
+        _search.resetStop();
+        _ponderer = new Thread(() -> _search.search(Long.MAX_VALUE,
+                                                    Long.MAX_VALUE));
+        _ponderer.setDaemon(true);
+        _ponderer.start();
+    }
+
+    @Override
+    public void stopPondering() {
+        if (_ponderer == null) {
+            return;
+        }
+        try {
+            while (_ponderer.isAlive()) {
+                _search.stop();
+                _ponderer.join(PONDER_POLL);
+            }
+        } catch (InterruptedException excp) {
+            throw new IllegalStateException("interrupted");
+        }
+        _ponderer = null;
+    }
+
+    /**
+     * Return a move for me from the current position, or null if there
+     * is none.  If I pondered the previous position, the subtree for the
+     * move actually played is kept.
+     */
+    private Move findMove() {
+        search().setRoot(new Position(board()));
+        _search.search(ITERATIONS, MOVE_TIME);
+        int move = _search.bestMove();
+        return move < 0 ? null : Position.toMove(move);
+    }
+
+    /**
+     * Return my search, creating it if needed.
+     */
+    MonteCarloSearch search() {
+        if (_search == null) {
+            _search = new MonteCarloSearch(TREE_CAPACITY,
+                                           _controller.randInt(1 << 30) + 1,
+                                           _threads, _leafPlayouts);
+        }
+        return _search;
+    }
+
+    /**
+     * Number of searching threads.
+     */
+    private final int _threads;
+
+    /**
+     * Number of parallel playouts per leaf.
+     */
+    private final int _leafPlayouts;
+
+    /**
+     * The search tree, kept between moves so that the part of it below
+     * the moves actually played can be reused, or null if not yet
+     * created.
+     */
+    private MonteCarloSearch _search;
+
+    /**
+     * The thread pondering on the opponent's time, or null if none.
+     */
+    private Thread _ponderer;
+
+}
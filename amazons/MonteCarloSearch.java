@@ -0,0 +1,526 @@
+package amazons;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** A Monte Carlo tree search (UCT) over Positions.  Because positions
+ *  early in a game have around 2,000 legal moves, children are added to
+ *  a node gradually ("progressive widening"): a node visited N times may
+ *  have at most about WIDEN_BASE * N**WIDEN_POWER children, and UCT
+ *  chooses only among those.  Each new child's move is taken from a
+ *  fixed pseudo-random permutation of the node's legal moves, so that no
+ *  list of untried moves need be stored.
+ *
+ *  The tree lives in parallel arrays of primitives indexed by node
+ *  number.  Nodes dropped from the tree (when the root advances, see
+ *  setRoot) go on a free list and are reused, so that a long series of
+ *  searches allocates nothing once the arrays are created.
+ *
+ *  Any number of worker threads may search the tree at once, without
+ *  locking.  Visit and win counts are atomic.  A worker counts its visit
+ *  to each node on its way down ("virtual loss"), which steers other
+ *  workers elsewhere until its result arrives.  A worker adds a child by
+ *  first claiming the next child number of the node with a
+ *  compare-and-set, so that no move is ever added twice, and new nodes
+ *  come from an atomic counter or the free list.  Optionally, each leaf
+ *  may also be played out several times in parallel ("leaf
+ *  parallelism"), on threads from a pool shared by all searches, whose
+ *  idle threads expire, so that searches may be discarded without being
+ *  shut down.
+ *  @author Sasha Manghise
+ */
+final class MonteCarloSearch {
+
+    /** Exploration constant for UCT. */
+    static final double EXPLORATION = 0.7;
+
+    /** Progressive-widening coefficient and exponent. */
+    static final double WIDEN_BASE = 2.0, WIDEN_POWER = 0.5;
+
+    /** A stride coprime to any possible number of legal moves, used to
+     *  permute a node's moves. */
+    private static final int STRIDE = 4909;
+
+    /** Threads for parallel leaf playouts of all searches. */
+    private static final ExecutorService LEAF_POOL =
+        Executors.newCachedThreadPool(MonteCarloSearch::daemon);
+
+    /** A new single-threaded search using a tree of at most CAPACITY
+     *  nodes and random playouts seeded with SEED. */
+    MonteCarloSearch(int capacity, long seed) {
+        this(capacity, seed, 1, 1);
+    }
+
+    /** A new search using a tree of at most CAPACITY nodes, THREADS
+     *  workers, and LEAFPLAYOUTS parallel random playouts at each leaf,
+     *  with random choices seeded by SEED. */
+    MonteCarloSearch(int capacity, long seed, int threads, int leafPlayouts) {
+        _capacity = capacity;
+        _move = new int[capacity];
+        _parent = new int[capacity];
+        _key = new long[capacity];
+        _firstChild = new AtomicIntegerArray(capacity);
+        _nextSibling = new int[capacity];
+        _numChildren = new AtomicIntegerArray(capacity);
+        _numLegal = new int[capacity];
+        _visits = new AtomicIntegerArray(capacity);
+        _wins = new AtomicIntegerArray(capacity);
+        _workers = new Worker[threads];
+        for (int i = 0; i < threads; i += 1) {
+            _workers[i] = new Worker(seed + i * leafPlayouts, leafPlayouts);
+        }
+        clear();
+    }
+
+    /** Discard the whole tree.  Must not be called during a search. */
+    void clear() {
+        _size.set(0);
+        _inUse.set(0);
+        _free.set(-1);
+        _root = allocate();
+        _rootPosition = null;
+    }
+
+    /** Make POSITION the root of the search.  If POSITION is already in
+     *  the tree at most two moves below the current root, its subtree is
+     *  kept and the rest of the tree is recycled; otherwise the tree is
+     *  cleared.  Must not be called during a search. */
+    void setRoot(Position position) {
+        long key = position.hash();
+        int node = -1;
+        if (_rootPosition != null) {
+            node = findDescendant(_root, key, 2);
+        }
+        if (node < 0) {
+            clear();
+            _key[_root] = key;
+        } else if (node != _root) {
+            detach(node);
+            release(_root);
+            _root = node;
+        }
+        _rootPosition = new Position(position);
+    }
+
+    /** Run at most ITERATIONS iterations from the current root, stopping
+     *  early after MILLIS milliseconds, using all my workers. */
+    void search(long iterations, long millis) {
+        long now = System.currentTimeMillis();
+        _deadline =
+            millis > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + millis;
+        _remaining.set(iterations);
+        _finished = false;
+        Thread[] helpers = new Thread[_workers.length - 1];
+        for (int i = 0; i < helpers.length; i += 1) {
+            helpers[i] = daemon(_workers[i + 1]);
+            helpers[i].start();
+        }
+        _workers[0].run();
+        try {
+            for (Thread helper : helpers) {
+                helper.join();
+            }
+        } catch (InterruptedException excp) {
+            throw new IllegalStateException("interrupted");
+        }
+    }
+
+    /** Stop the current search, if any, as soon as possible, and make
+     *  any later searches stop after one iteration per worker (so that
+     *  the root has a child) until resetStop. */
+    void stop() {
+        _stopped = true;
+    }
+
+    /** Cancel any request to stop, so that later searches run. */
+    void resetStop() {
+        _stopped = false;
+    }
+
+    /** Return the packed move from the root with the most visits, or -1
+     *  if the root has no children. */
+    int bestMove() {
+        int best = -1, bestVisits = -1;
+        for (int c = _firstChild.get(_root); c >= 0; c = _nextSibling[c]) {
+            if (_visits.get(c) > bestVisits) {
+                best = c;
+                bestVisits = _visits.get(c);
+            }
+        }
+        return best < 0 ? -1 : _move[best];
+    }
+
+    /** Store in MOVES the packed moves of the (at most) K children of the
+     *  root with the most visits, most visited first, and return their
+     *  number. */
+    int topMoves(int[] moves, int k) {
+        int[] visits = new int[k];
+        int n = 0;
+        for (int c = _firstChild.get(_root); c >= 0; c = _nextSibling[c]) {
+            int v = _visits.get(c);
+            int i = Math.min(n, k - 1);
+            if (n == k && v <= visits[i]) {
+                continue;
+            }
+            while (i > 0 && visits[i - 1] < v) {
+                moves[i] = moves[i - 1];
+                visits[i] = visits[i - 1];
+                i -= 1;
+            }
+            moves[i] = _move[c];
+            visits[i] = v;
+            n = Math.min(n + 1, k);
+        }
+        return n;
+    }
+
+    /** Return the fraction of playouts through the root won by the side
+     *  to move at the root. */
+    double rootValue() {
+        int visits = _visits.get(_root);
+        return visits == 0 ? 0.5 : 1.0 - (double) _wins.get(_root) / visits;
+    }
+
+    /** Return the number of playouts through the root. */
+    int rootVisits() {
+        return _visits.get(_root);
+    }
+
+    /** Return the number of nodes in use. */
+    int nodeCount() {
+        return _inUse.get();
+    }
+
+    /** Return the root node.  This and the following accessors, which
+     *  expose the tree by node number, are meant for checking it. */
+    int root() {
+        return _root;
+    }
+
+    /** Return the first child of NODE, or -1 if it has none. */
+    int firstChild(int node) {
+        return _firstChild.get(node);
+    }
+
+    /** Return the next sibling of NODE, or -1 if it is the last. */
+    int nextSibling(int node) {
+        return _nextSibling[node];
+    }
+
+    /** Return the packed move leading to NODE. */
+    int move(int node) {
+        return _move[node];
+    }
+
+    /** Return the number of playouts through NODE. */
+    int visits(int node) {
+        return _visits.get(node);
+    }
+
+    /** Return the maximum number of children NODE may have at present. */
+    private int widenLimit(int node) {
+        int limit =
+            1 + (int) (WIDEN_BASE * Math.pow(_visits.get(node), WIDEN_POWER));
+        return Math.min(limit, _numLegal[node]);
+    }
+
+    /** Add the next untried move of NODE, whose position is POS, as a new
+     *  child and return it, or return -1 if NODE may not have more
+     *  children at present or the tree is full.  MOVES is a scratch
+     *  buffer.  If the tree fills between claiming a child number and
+     *  allocating the child, the number stays claimed, and its move is
+     *  never added to NODE: giving the number back could let another
+     *  worker claim it after a later one, adding that move twice. */
+    private int expand(int node, Position pos, int[] moves) {
+        int k = _numChildren.get(node);
+        if (k >= widenLimit(node) || full()
+            || !_numChildren.compareAndSet(node, k, k + 1)) {
+            return -1;
+        }
+        int child = allocate();
+        if (child < 0) {
+            return -1;
+        }
+        int n = pos.legalMoves(moves);
+        int offset = (int) ((_key[node] >>> 1) % n);
+        int move = moves[(int) ((offset + (long) k * STRIDE) % n)];
+        _move[child] = move;
+        _parent[child] = node;
+        _key[child] = pos.hashAfter(move);
+        int first;
+        do {
+            first = _firstChild.get(node);
+            _nextSibling[child] = first;
+        } while (!_firstChild.compareAndSet(node, first, child));
+        return child;
+    }
+
+    /** Return the child of NODE with the greatest UCT value, or -1 if it
+     *  has none. */
+    private int select(int node) {
+        double logN = Math.log(_visits.get(node) + 1);
+        int best = -1;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        for (int c = _firstChild.get(node); c >= 0; c = _nextSibling[c]) {
+            int visits = _visits.get(c);
+            double value;
+            if (visits == 0) {
+                value = Double.MAX_VALUE;
+            } else {
+                value = (double) _wins.get(c) / visits
+                    + EXPLORATION * Math.sqrt(logN / visits);
+            }
+            if (value > bestValue) {
+                bestValue = value;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /** Return the first node whose key is KEY in the subtree rooted at
+     *  NODE and at most DEPTH levels below it, or -1 if none. */
+    private int findDescendant(int node, long key, int depth) {
+        if (_key[node] == key) {
+            return node;
+        }
+        if (depth > 0) {
+            for (int c = _firstChild.get(node); c >= 0;
+                 c = _nextSibling[c]) {
+                int found = findDescendant(c, key, depth - 1);
+                if (found >= 0) {
+                    return found;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /** Remove NODE from its parent's list of children. */
+    private void detach(int node) {
+        int p = _parent[node];
+        int prev = -1;
+        for (int c = _firstChild.get(p); c != node; c = _nextSibling[c]) {
+            prev = c;
+        }
+        if (prev < 0) {
+            _firstChild.set(p, _nextSibling[node]);
+        } else {
+            _nextSibling[prev] = _nextSibling[node];
+        }
+        _numChildren.decrementAndGet(p);
+        _nextSibling[node] = -1;
+        _parent[node] = -1;
+    }
+
+    /** Return true iff no fresh node is available at present. */
+    private boolean full() {
+        return _size.get() >= _capacity && _free.get() < 0;
+    }
+
+    /** Return a fresh node, or -1 if none is available.  Nodes are only
+     *  taken from (and never returned to) the free list during a search,
+     *  so a simple compare-and-set suffices to pop it. */
+    private int allocate() {
+        int node = _size.get() < _capacity ? _size.getAndIncrement() : -1;
+        if (node < 0 || node >= _capacity) {
+            do {
+                node = _free.get();
+                if (node < 0) {
+                    return -1;
+                }
+            } while (!_free.compareAndSet(node, _nextSibling[node]));
+        }
+        _firstChild.set(node, -1);
+        _nextSibling[node] = _parent[node] = -1;
+        _numChildren.set(node, 0);
+        _numLegal[node] = -1;
+        _visits.set(node, 0);
+        _wins.set(node, 0);
+        _inUse.incrementAndGet();
+        return node;
+    }
+
+    /** Return the subtree rooted at NODE to the free list.  Must not be
+     *  called during a search. */
+    private void release(int node) {
+        for (int c = _firstChild.get(node), next; c >= 0; c = next) {
+            next = _nextSibling[c];
+            release(c);
+        }
+        _nextSibling[node] = _free.get();
+        _free.set(node);
+        _inUse.decrementAndGet();
+    }
+
+    /** Return a new daemon thread that runs BODY. */
+    private static Thread daemon(Runnable body) {
+        Thread thread = new Thread(body);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /** One searching thread's private state. */
+    private class Worker implements Runnable {
+
+        /** A worker whose random playouts are seeded from SEED, and that
+         *  plays out each leaf LEAFPLAYOUTS times. */
+        Worker(long seed, int leafPlayouts) {
+            _playouts = new Playout[leafPlayouts];
+            for (int i = 0; i < leafPlayouts; i += 1) {
+                _playouts[i] = new Playout(seed + i);
+            }
+            _results = new Future<?>[leafPlayouts];
+        }
+
+        @Override
+        public void run() {
+            _pos = new Position(_rootPosition);
+            for (long i = 0; !_finished && (i == 0 || !_stopped); i += 1) {
+                if ((i & 0xff) == 0
+                    && System.currentTimeMillis() > _deadline) {
+                    _finished = true;
+                } else if (_remaining.getAndDecrement() <= 0) {
+                    _finished = true;
+                } else {
+                    iterate();
+                }
+            }
+        }
+
+        /** Perform one iteration of selection, expansion, playout, and
+         *  backpropagation, starting and ending at the root position. */
+        private void iterate() {
+            int visits = _playouts.length;
+            int node = _root;
+            int depth = 0;
+            _path[0] = node;
+            _visits.addAndGet(node, visits);
+            while (true) {
+                if (_numLegal[node] < 0) {
+                    _numLegal[node] = _pos.legalMoves(_moves);
+                }
+                if (_numLegal[node] == 0) {
+                    break;
+                }
+                int child = expand(node, _pos, _moves);
+                boolean expanded = child >= 0;
+                if (!expanded) {
+                    child = select(node);
+                    if (child < 0) {
+                        break;
+                    }
+                }
+                _pos.makeMove(_move[child]);
+                depth += 1;
+                _path[depth] = child;
+                _visits.addAndGet(child, visits);
+                node = child;
+                if (expanded) {
+                    break;
+                }
+            }
+            int whiteWins = playOut();
+            for (int d = depth; d >= 0; d -= 1) {
+                int moverWins =
+                    _pos.side() == 1 ? whiteWins : visits - whiteWins;
+                if (moverWins > 0) {
+                    _wins.addAndGet(_path[d], moverWins);
+                }
+                if (d > 0) {
+                    _pos.undo();
+                }
+            }
+        }
+
+        /** Play out the game from _pos once with each of my Playouts and
+         *  return the number of those won by WHITE. */
+        private int playOut() {
+            if (_playouts.length == 1) {
+                return _playouts[0].run(_pos) == 0 ? 1 : 0;
+            }
+            for (int i = 1; i < _playouts.length; i += 1) {
+                Playout playout = _playouts[i];
+                _results[i] = LEAF_POOL.submit(() -> playout.run(_pos));
+            }
+            int whiteWins = _playouts[0].run(_pos) == 0 ? 1 : 0;
+            try {
+                for (int i = 1; i < _playouts.length; i += 1) {
+                    if ((Integer) _results[i].get() == 0) {
+                        whiteWins += 1;
+                    }
+                }
+            } catch (InterruptedException | ExecutionException excp) {
+                throw new IllegalStateException(excp.getMessage());
+            }
+            return whiteWins;
+        }
+
+        /** The position at the node being visited. */
+        private Position _pos;
+        /** Sources of random playouts, one per leaf playout. */
+        private final Playout[] _playouts;
+        /** Pending results of parallel leaf playouts. */
+        private final Future<?>[] _results;
+        /** Nodes on the path from the root in the current iteration. */
+        private final int[] _path = new int[Position.SQUARES + 1];
+        /** Scratch buffer for legal moves. */
+        private final int[] _moves = new int[Position.MAX_MOVES];
+    }
+
+    /** Maximum number of nodes. */
+    private final int _capacity;
+
+    /** Packed move leading to each node. */
+    private final int[] _move;
+    /** Parent of each node, or -1 for the root. */
+    private final int[] _parent;
+    /** Hash key of the position at each node. */
+    private final long[] _key;
+    /** First child of each node, or -1. */
+    private final AtomicIntegerArray _firstChild;
+    /** Next sibling of each node, or -1.  Also links the free list.  Set
+     *  before a node is published by a compare-and-set on its parent's
+     *  _firstChild. */
+    private final int[] _nextSibling;
+    /** Number of children of each node, including those being added. */
+    private final AtomicIntegerArray _numChildren;
+    /** Number of legal moves at each node, or -1 if not yet counted.
+     *  Workers may race to fill in an entry, but all write the same
+     *  value. */
+    private final int[] _numLegal;
+    /** Number of playouts through each node, including those still in
+     *  progress. */
+    private final AtomicIntegerArray _visits;
+    /** Number of those playouts won by the side that moved into the
+     *  node. */
+    private final AtomicIntegerArray _wins;
+
+    /** Number of nodes ever allocated from the arrays (may exceed
+     *  _capacity). */
+    private final AtomicInteger _size = new AtomicInteger();
+    /** Number of nodes currently in the tree. */
+    private final AtomicInteger _inUse = new AtomicInteger();
+    /** Head of the free list, or -1. */
+    private final AtomicInteger _free = new AtomicInteger();
+    /** The root node. */
+    private int _root;
+    /** The position at the root, or null if none has been set. */
+    private Position _rootPosition;
+
+    /** The searching threads' states. */
+    private final Worker[] _workers;
+    /** Number of iterations left in the current search. */
+    private final AtomicLong _remaining = new AtomicLong();
+    /** Time at which the current search is to stop. */
+    private volatile long _deadline;
+    /** True when the current search has used its time or iterations. */
+    private volatile boolean _finished;
+    /** True when searches are to stop, until resetStop. */
+    private volatile boolean _stopped;
+}
@@ -1,7 +1,7 @@
 package amazons;
 
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.regex.Pattern;
-import java.util.regex.Matcher;
 
 import static amazons.Square.sq;
 import static amazons.Square.SQ;
@@ -17,7 +17,8 @@ final class Move {
     /** The syntax for a move, using either the forms FROM-TO(SPEAR) or
      *  FROM TO SPEAR.  Either groups 1-3 or 4-6 in a match from this pattern
      *  contain FROM, TO, and SPEAR (the other 3 groups are null in each
-     *  case. */
+     *  case.  Moves are parsed by hand rather than with this pattern,
+     *  which is kept as the definition of their syntax. */
     static final Pattern MOVE_PATTERN =
         Pattern.compile(String.format("%s-%s\\(%s\\)|%s\\s+%s\\s+%s",
                                       SQ, SQ, SQ, SQ, SQ, SQ));
@@ -37,25 +38,28 @@ final class Move {
         return _spear;
     }
 
-    /** Return the unique Move FROM-TO(SPEAR). */
+    /** Return the unique Move FROM-TO(SPEAR).  Moves are created on
+     *  first use, and safely published to all threads. */
     static Move mv(Square from, Square to, Square spear) {
-        if (MOVES[from.index()][to.index()][spear.index()] == null) {
-            MOVES[from.index()][to.index()][spear.index()] =
-                new Move(from, to, spear);
+        int k = (from.index() * Position.SQUARES + to.index())
+            * Position.SQUARES + spear.index();
+        Move move = MOVES.get(k);
+        if (move == null) {
+            MOVES.compareAndSet(k, null, new Move(from, to, spear));
+            move = MOVES.get(k);
         }
-        return MOVES[from.index()][to.index()][spear.index()];
+        return move;
     }
 
     /** Return the Move denoted by STR, if STR denotes a move with
      *  valid syntax in which the piece move and spear throw are proper
-     *  queen moves, and nd4-d5(d6)ull otherwise. */
-    static Move mv(String str) {
-        _moveMatcher.reset(str);
-        if (_moveMatcher.matches()) {
-            int k = _moveMatcher.group(1) != null ? 1 : 4;
-            Square from = sq(_moveMatcher.group(k)),
-                to = sq(_moveMatcher.group(k + 1)),
-                spear = sq(_moveMatcher.group(k + 2));
+     *  queen moves, and null otherwise. */
+    static Move mv(CharSequence str) {
+        int move = parse(str);
+        if (move >= 0) {
+            Square from = sq(move / SQUARES_2),
+                to = sq(move / Position.SQUARES % Position.SQUARES),
+                spear = sq(move % Position.SQUARES);
             if (from.isQueenMove(to) && to.isQueenMove(spear)) {
                 return mv(from, to, spear);
             }
@@ -63,11 +67,75 @@ final class Move {
         return null;
     }
 
+    /** Return the move denoted by STR, packed as by Position.pack, if
+     *  STR has the right format for a Move, and -1 otherwise.  Does not
+     *  check that the piece move and spear throw are queen moves. */
+    static int pack(CharSequence str) {
+        int move = parse(str);
+        return move < 0 ? -1
+            : Position.pack(move / SQUARES_2,
+                            move / Position.SQUARES % Position.SQUARES,
+                            move % Position.SQUARES);
+    }
+
     /** Return true iff STR has the right format for a Move, ignoring whether
      *  its piece-move and spear-throw are valid queen moves. */
-    static boolean isGrammaticalMove(String str) {
-        _moveMatcher.reset(str);
-        return _moveMatcher.matches();
+    static boolean isGrammaticalMove(CharSequence str) {
+        return parse(str) >= 0;
+    }
+
+    /** Return (FROM * SQUARES + TO) * SQUARES + SPEAR, where SQUARES is
+     *  the number of squares, if all of STR matches MOVE_PATTERN with
+     *  square indices FROM, TO, and SPEAR, and -1 otherwise.  This is a
+     *  hand-written equivalent of the pattern, which keeps no state and
+     *  so may be used by any number of threads at once. */
+    private static int parse(CharSequence str) {
+        int n = str.length();
+        int from = Square.parse(str, 0);
+        if (from < 0) {
+            return -1;
+        }
+        int k = Square.length(from);
+        boolean dashed = k < n && str.charAt(k) == '-';
+        k = dashed ? k + 1 : skipSpace(str, k);
+        int to = k < 0 ? -1 : Square.parse(str, k);
+        if (to < 0) {
+            return -1;
+        }
+        k += Square.length(to);
+        if (dashed) {
+            k = k < n && str.charAt(k) == '(' ? k + 1 : -1;
+        } else {
+            k = skipSpace(str, k);
+        }
+        int spear = k < 0 ? -1 : Square.parse(str, k);
+        if (spear < 0) {
+            return -1;
+        }
+        k += Square.length(spear);
+        if (dashed) {
+            k = k < n && str.charAt(k) == ')' ? k + 1 : -1;
+        }
+        return k == n ? (from * Position.SQUARES + to) * Position.SQUARES
+            + spear : -1;
+    }
+
+    /** Return the position of the first character of STR at or after K
+     *  that is not whitespace (as for \s in a Pattern), provided that
+     *  there is at least one whitespace character at K, and otherwise
+     *  -1. */
+    private static int skipSpace(CharSequence str, int k) {
+        int start = k;
+        while (k < str.length() && isSpace(str.charAt(k))) {
+            k += 1;
+        }
+        return k > start ? k : -1;
+    }
+
+    /** Return true iff C is whitespace, as for \s in a Pattern. */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\013'
+            || c == '\f' || c == '\r';
     }
 
     @Override
@@ -81,14 +149,16 @@ final class Move {
         _str = String.format("%s-%s(%s)", from, to, spear);
     }
 
-    /** The cache of all Moves created. */
-    private static final Move[][][] MOVES = new Move[100][100][100];
+    /** Square of the number of squares. */
+    private static final int SQUARES_2 = Position.SQUARES * Position.SQUARES;
+
+    /** The cache of all Moves created, indexed by (FROM * SQUARES + TO)
+     *  * SQUARES + SPEAR. */
+    private static final AtomicReferenceArray<Move> MOVES =
+        new AtomicReferenceArray<>(SQUARES_2 * Position.SQUARES);
 
     /** The components of a Move. */
     private final Square _from, _to, _spear;
     /** The printed form of a Move. */
-    private String _str;
-    /**  A utility Matcher for moves, using MOVE_PATTERN. */
-    private static Matcher _moveMatcher = MOVE_PATTERN.matcher("");
+    private final String _str;
 }
-
@@ -0,0 +1,27 @@
+package amazons;
+
+/** A Player that can supply its moves as Moves rather than as text, so
+ *  that its Controller can check and apply them directly instead of
+ *  parsing them as commands.  The text of myMove remains the channel for
+ *  human and scripted input.
+ *  @author Sasha Manghise
+ */
+interface MoveChooser {
+
+    /** Return my move in the current position of my controller's board,
+     *  or null if I have none.  The move is reported through my
+     *  controller, as for myMove, but not made. */
+    Move chooseMove();
+
+    /** Make the current call of chooseMove, if any, return as soon as
+     *  possible with the best move it has found so far.  A request made
+     *  before that call starts holds for it, so that none is lost; it
+     *  holds until resetChoosing.  May be called from any thread. */
+    void stopChoosing();
+
+    /** Cancel any earlier request to stop choosing.  To be called before
+     *  the next call of chooseMove is made known to the threads that may
+     *  call stopChoosing. */
+    void resetChoosing();
+
+}
@@ -0,0 +1,35 @@
+package amazons;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** A Flight Recorder event for the choice of a move by an automated
+ *  player.  The event's duration is the time taken to choose.
+ *  @author Sasha Manghise
+ */
+@Name("amazons.MoveDecision")
+@Label("Move Decision")
+@Category({ "Amazons", "Search" })
+@Description("An automated player chose a move")
+@StackTrace(false)
+final class MoveDecisionEvent extends jdk.jfr.Event {
+
+    /** The side that moved. */
+    @Label("Side")
+    String side;
+
+    /** The move chosen, or null if there was none. */
+    @Label("Move")
+    String move;
+
+    /** How the move was found (for example, "book" or "search"). */
+    @Label("Source")
+    String source;
+
+    /** Nodes searched to find the move. */
+    @Label("Nodes")
+    long nodes;
+}
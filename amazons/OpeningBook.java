@@ -0,0 +1,223 @@
+package amazons;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static amazons.Utils.error;
+
+/** A book of opening moves.  A book file is a flat array of RECORD_SIZE
+ *  byte records (KEY, MOVE, SCORE), sorted by KEY, where KEY is the
+ *  (8-byte) canonical hash key of a Position, MOVE is the (4-byte) packed
+ *  best move found for it, as made in its canonical image, and SCORE is
+ *  the (4-byte) estimated chance, in thousandths, that the side to move
+ *  wins.  All values are big-endian.
+ *  A book is mapped into memory when opened and searched in place by
+ *  binary search, so opening even a large book costs almost nothing.
+ *  Because positions are stored in canonical form (see
+ *  Position.canonicalHash), one record serves all reflections and
+ *  rotations of a position.
+ *
+ *  The static build method creates a book by deep searches of all
+ *  positions in the opening up to a given depth, following the most
+ *  promising few moves from each.
+ *  @author Sasha Manghise
+ */
+final class OpeningBook {
+
+    /** Size of a record in bytes. */
+    static final int RECORD_SIZE = 16;
+
+    /** Default depth of a built book, in plies. */
+    static final int BUILD_PLIES = 3;
+
+    /** Default number of moves followed from each position in a built
+     *  book. */
+    static final int BUILD_WIDTH = 4;
+
+    /** Default number of search iterations per position in a built
+     *  book. */
+    static final long BUILD_ITERATIONS = 200000;
+
+    /** A book read from the file at PATH. */
+    OpeningBook(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path)) {
+            long size = channel.size();
+            if (size % RECORD_SIZE != 0
+                || size / RECORD_SIZE > Integer.MAX_VALUE / RECORD_SIZE) {
+                throw new IOException("malformed opening book: " + path);
+            }
+            _records = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            _size = (int) (size / RECORD_SIZE);
+        }
+    }
+
+    /** Return the number of positions in the book. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the packed book move for POSITION, or -1 if it is not in
+     *  the book. */
+    int move(Position position) {
+        int t = position.canonicalSymmetry();
+        int k = find(position.hash(t));
+        if (k < 0) {
+            return -1;
+        }
+        return Symmetry.move(Symmetry.inverse(t),
+                             _records.getInt(k * RECORD_SIZE + 8));
+    }
+
+    /** Return the book score of POSITION (as for the file format), or -1
+     *  if it is not in the book. */
+    int score(Position position) {
+        int k = find(position.canonicalHash());
+        return k < 0 ? -1 : _records.getInt(k * RECORD_SIZE + 12);
+    }
+
+    /** Return the index of the record with key KEY, or -1 if none. */
+    private int find(long key) {
+        int lo = 0, hi = _size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long midKey = _records.getLong(mid * RECORD_SIZE);
+            if (midKey < key) {
+                lo = mid + 1;
+            } else if (midKey > key) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Write to PATH a book covering the first PLIES moves from the
+     *  initial position, following the WIDTH moves most visited by
+     *  the search from each position.  Only one of each set of symmetric
+     *  positions is searched.  Each position is searched with
+     *  ITERATIONS iterations of Monte Carlo tree search, THREADS
+     *  positions at a time. */
+    static void build(Path path, int plies, int width, long iterations,
+                      int threads) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<long[]> entries = new ArrayList<>();
+        List<Position> level = new ArrayList<>();
+        Set<Long> seen = new HashSet<>();
+        level.add(new Position());
+        try {
+            for (int ply = 0; ply < plies && !level.isEmpty(); ply += 1) {
+                List<Future<int[]>> results = new ArrayList<>();
+                for (Position pos : level) {
+                    final long seed = pos.hash();
+                    results.add(pool.submit(() -> analyze(pos, width,
+                                                          iterations,
+                                                          seed)));
+                }
+                List<Position> next = new ArrayList<>();
+                for (int i = 0; i < level.size(); i += 1) {
+                    Position pos = level.get(i);
+                    int[] result = results.get(i).get();
+                    if (result.length < 2) {
+                        continue;
+                    }
+                    int t = pos.canonicalSymmetry();
+                    entries.add(new long[] { pos.hash(t),
+                                             Symmetry.move(t, result[1]),
+                                             result[0] });
+                    for (int k = 1; k < result.length; k += 1) {
+                        Position child = new Position(pos);
+                        child.makeMove(result[k]);
+                        if (seen.add(child.canonicalHash())) {
+                            next.add(child);
+                        }
+                    }
+                }
+                level = next;
+            }
+        } catch (InterruptedException | ExecutionException excp) {
+            throw new IOException("book search failed: " + excp);
+        } finally {
+            pool.shutdown();
+        }
+        write(path, entries);
+    }
+
+    /** Search POS with ITERATIONS iterations seeded by SEED and return an
+     *  array containing its score (as for the file format) followed by
+     *  its (at most) WIDTH best moves, best first. */
+    private static int[] analyze(Position pos, int width, long iterations,
+                                 long seed) {
+        MonteCarloSearch search =
+            new MonteCarloSearch(BUILD_TREE_CAPACITY, seed);
+        search.setRoot(pos);
+        search.search(iterations, Long.MAX_VALUE);
+        int[] moves = new int[width];
+        int n = search.topMoves(moves, width);
+        int[] result = new int[n + 1];
+        result[0] = (int) Math.round(search.rootValue() * 1000);
+        System.arraycopy(moves, 0, result, 1, n);
+        return result;
+    }
+
+    /** Write ENTRIES, each of the form { KEY, MOVE, SCORE }, to PATH as
+     *  a book, dropping all but the first entry for any key. */
+    private static void write(Path path, List<long[]> entries)
+        throws IOException {
+        long[][] sorted = entries.toArray(new long[0][]);
+        Arrays.sort(sorted, Comparator.comparingLong(e -> e[0]));
+        ByteBuffer buffer =
+            ByteBuffer.allocate(sorted.length * RECORD_SIZE);
+        for (int i = 0; i < sorted.length; i += 1) {
+            if (i > 0 && sorted[i][0] == sorted[i - 1][0]) {
+                continue;
+            }
+            buffer.putLong(sorted[i][0]);
+            buffer.putInt((int) sorted[i][1]);
+            buffer.putInt((int) sorted[i][2]);
+        }
+        buffer.flip();
+        try (FileChannel channel =
+             FileChannel.open(path, StandardOpenOption.CREATE,
+                              StandardOpenOption.WRITE,
+                              StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /** Return an OpeningBook read from the file named NAME, reporting
+     *  failure as an IllegalArgumentException. */
+    static OpeningBook open(String name) {
+        try {
+            return new OpeningBook(Paths.get(name));
+        } catch (IOException excp) {
+            throw error("could not read opening book: %s", excp.getMessage());
+        }
+    }
+
+    /** Number of nodes in the tree of each search during build. */
+    private static final int BUILD_TREE_CAPACITY = 1 << 19;
+
+    /** The records of the book. */
+    private final MappedByteBuffer _records;
+
+    /** The number of records. */
+    private final int _size;
+}
@@ -0,0 +1,146 @@
+package amazons;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static amazons.Position.EMPTY;
+import static amazons.Position.NEIGHBOR;
+
+/** Counts of the leaves of the tree of legal moves to a given depth
+ *  ("perft"), which serve to check move generation against known values
+ *  and to measure its speed.  The last ply is counted in bulk: for each
+ *  square a queen can reach, we add up the lengths of the empty rays from
+ *  it, rather than generating each move.
+ *  @author Sasha Manghise
+ */
+final class Perft {
+
+    /** Not instantiable. */
+    private Perft() {
+    }
+
+    /** Return the number of sequences of DEPTH legal moves from POS.
+     *  POS is unchanged on return. */
+    static long perft(Position pos, int depth) {
+        if (depth == 0) {
+            return 1;
+        } else if (depth == 1) {
+            return countMoves(pos);
+        }
+        int[] moves = new int[Position.MAX_MOVES];
+        int n = pos.legalMoves(moves);
+        long total = 0;
+        for (int i = 0; i < n; i += 1) {
+            pos.makeMove(moves[i]);
+            total += perft(pos, depth - 1);
+            pos.undo();
+        }
+        return total;
+    }
+
+    /** Return perft(POS, DEPTH), computing the subtrees of the moves
+     *  from POS as separate tasks in POOL. */
+    static long perft(Position pos, int depth, ForkJoinPool pool) {
+        if (depth <= 1) {
+            return perft(pos, depth);
+        }
+        return pool.invoke(new Subtrees(pos, depth));
+    }
+
+    /** Return the number of legal moves from POS. */
+    static long countMoves(Position pos) {
+        long total = 0;
+        int side = pos.side();
+        for (int k = 0; k < pos.queenCount(side); k += 1) {
+            int from = pos.queen(side, k);
+            for (int d = 0; d < 8; d += 1) {
+                for (int to = NEIGHBOR[from][d];
+                     to >= 0 && pos.get(to) == EMPTY;
+                     to = NEIGHBOR[to][d]) {
+                    total += rayLengths(pos, to, from);
+                }
+            }
+        }
+        return total;
+    }
+
+    /** Return the total number of squares reachable by a queen move from
+     *  square S in POS, treating square ASEMPTY as empty. */
+    private static int rayLengths(Position pos, int s, int asEmpty) {
+        int total = 0;
+        for (int d = 0; d < 8; d += 1) {
+            for (int t = NEIGHBOR[s][d];
+                 t >= 0 && (t == asEmpty || pos.get(t) == EMPTY);
+                 t = NEIGHBOR[t][d]) {
+                total += 1;
+            }
+        }
+        return total;
+    }
+
+    /** A task computing perft of a position as the sum of perft of its
+     *  children, each of which is a separate task. */
+    private static class Subtrees extends RecursiveTask<Long> {
+
+        /** Serialization version (tasks are never serialized). */
+        private static final long serialVersionUID = 1L;
+
+        /** A task computing perft(POS, DEPTH).  POS is copied. */
+        Subtrees(Position pos, int depth) {
+            _pos = new Position(pos);
+            _depth = depth;
+        }
+
+        @Override
+        protected Long compute() {
+            int[] moves = new int[Position.MAX_MOVES];
+            int n = _pos.legalMoves(moves);
+            List<Subtree> children = new ArrayList<>();
+            for (int i = 0; i < n; i += 1) {
+                children.add(new Subtree(_pos, moves[i], _depth - 1));
+            }
+            long total = 0;
+            for (Subtree child : invokeAll(children)) {
+                total += child.join();
+            }
+            return total;
+        }
+
+        /** The position. */
+        private final Position _pos;
+        /** The depth. */
+        private final int _depth;
+    }
+
+    /** A task computing perft of the position after one move. */
+    private static class Subtree extends RecursiveTask<Long> {
+
+        /** Serialization version (tasks are never serialized). */
+        private static final long serialVersionUID = 1L;
+
+        /** A task computing perft(P, DEPTH), where P is POS after MOVE.
+         *  POS is copied only when the task runs. */
+        Subtree(Position pos, int move, int depth) {
+            _pos = pos;
+            _move = move;
+            _depth = depth;
+        }
+
+        @Override
+        protected Long compute() {
+            Position pos = new Position(_pos);
+            pos.makeMove(_move);
+            return perft(pos, _depth);
+        }
+
+        /** The position before the move.  It is not modified while the
+         *  task may run. */
+        private final Position _pos;
+        /** The move. */
+        private final int _move;
+        /** The depth after the move. */
+        private final int _depth;
+    }
+}
@@ -0,0 +1,155 @@
+package amazons;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static amazons.Position.EMPTY;
+import static amazons.Position.NEIGHBOR;
+
+/** A generator of random playouts: games continued with random legal
+ *  moves until one side cannot move.  Moves are sampled directly rather
+ *  than chosen from a list of all legal moves: we pick a random queen
+ *  that can move, a random direction in which it can move and a random
+ *  distance along it, and then a spear throw from its new square in the
+ *  same way.  (Thus moves are not uniformly distributed, which does not
+ *  matter for playouts.)  Each Playout owns its own scratch Position and
+ *  seeded pseudo-random number generator, so a playout allocates nothing,
+ *  and separate Playouts may run in separate threads.
+ *  @author Sasha Manghise
+ */
+final class Playout {
+
+    /** A new Playout whose random choices are determined by SEED. */
+    Playout(long seed) {
+        _state = seed;
+    }
+
+    /** Play out the game from START, which is not modified, and return the
+     *  winning side (0 for WHITE and 1 for BLACK). */
+    int run(Position start) {
+        _pos.copy(start);
+        return play(_pos);
+    }
+
+    /** Play out the game in POS, leaving POS in the final position, and
+     *  return the winning side (0 for WHITE and 1 for BLACK). */
+    int play(Position pos) {
+        while (true) {
+            int move = randomMove(pos);
+            if (move < 0) {
+                break;
+            }
+            pos.makeMove(move);
+        }
+        _count += 1;
+        return pos.side() ^ 1;
+    }
+
+    /** Return a random legal packed move for the side to move in POS, or
+     *  -1 if there is none. */
+    int randomMove(Position pos) {
+        int side = pos.side();
+        int queens = pos.queenCount(side);
+        int untried = (1 << queens) - 1;
+        while (untried != 0) {
+            int k = nthBit(untried, nextInt(Integer.bitCount(untried)));
+            untried &= ~(1 << k);
+            int from = pos.queen(side, k);
+            int to = randomStep(pos, from, -1);
+            if (to >= 0) {
+                return Position.pack(from, to, randomStep(pos, to, from));
+            }
+        }
+        return -1;
+    }
+
+    /** Return the number of playouts completed so far. */
+    long count() {
+        return _count;
+    }
+
+    /** Return a pseudo-random integer in [0 .. N). */
+    int nextInt(int n) {
+        return (int) (((nextLong() >>> 32) * n) >>> 32);
+    }
+
+    /** Return the next 64 pseudo-random bits (the SplitMix64 generator). */
+    long nextLong() {
+        _state += 0x9e3779b97f4a7c15L;
+        return Position.mix(_state);
+    }
+
+    /** Return the number of playouts from the initial position completed
+     *  by each of THREADS threads in MILLIS milliseconds. */
+    static long[] measure(int threads, long millis) {
+        long[] counts = new long[threads];
+        AtomicBoolean stop = new AtomicBoolean();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i += 1) {
+            final int id = i;
+            workers[i] = new Thread(() -> {
+                Playout playout = new Playout(id + 1);
+                Position start = new Position();
+                while (!stop.get()) {
+                    playout.run(start);
+                }
+                counts[id] = playout.count();
+            });
+            workers[i].start();
+        }
+        try {
+            Thread.sleep(millis);
+            stop.set(true);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException excp) {
+            throw new IllegalStateException("interrupted");
+        }
+        return counts;
+    }
+
+    /** Return a random square reachable by a queen move from FROM in POS,
+     *  treating square ASEMPTY (if not -1) as empty, or -1 if there is
+     *  none. */
+    private int randomStep(Position pos, int from, int asEmpty) {
+        int[] next = NEIGHBOR[from];
+        int dirs = 0;
+        for (int d = 0; d < 8; d += 1) {
+            int s = next[d];
+            if (s >= 0 && (s == asEmpty || pos.get(s) == EMPTY)) {
+                dirs |= 1 << d;
+            }
+        }
+        if (dirs == 0) {
+            return -1;
+        }
+        int d = nthBit(dirs, nextInt(Integer.bitCount(dirs)));
+        int length = 0;
+        for (int s = next[d]; s >= 0 && (s == asEmpty || pos.get(s) == EMPTY);
+             s = NEIGHBOR[s][d]) {
+            length += 1;
+        }
+        int s = from;
+        for (int steps = 1 + nextInt(length); steps > 0; steps -= 1) {
+            s = NEIGHBOR[s][d];
+        }
+        return s;
+    }
+
+    /** Return the position of the Nth lowest 1 bit of BITS. */
+    private static int nthBit(int bits, int n) {
+        for (; n > 0; n -= 1) {
+            bits &= bits - 1;
+        }
+        return Integer.numberOfTrailingZeros(bits);
+    }
+
+    /** Scratch position for run. */
+    private final Position _pos = new Position();
+
+    /** State of the pseudo-random number generator. */
+    private long _state;
+
+    /** Number of playouts completed. */
+    private long _count;
+}
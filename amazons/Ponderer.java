@@ -0,0 +1,22 @@
+package amazons;
+
+/** A Player that can think about the game while its opponent is
+ *  choosing a move, keeping what it learns for its own next move.  A
+ *  MonteCarloAI ponders with its tree search, and keeps the subtree
+ *  below the reply actually played.  An AI ponders only late in the
+ *  game, once at most PROOF_EMPTY_LIMIT squares are empty, and then
+ *  only with its proof search; before that, pondering does nothing.
+ *  @author Sasha Manghise
+ */
+interface Ponderer {
+
+    /** Begin thinking in the background about POSITION, in which my
+     *  opponent is to move.  POSITION becomes mine. */
+    void startPondering(Position position);
+
+    /** Stop thinking begun by startPondering, and return once the
+     *  background search has finished.  Has no effect if I am not
+     *  pondering. */
+    void stopPondering();
+
+}
@@ -0,0 +1,488 @@
+package amazons;
+
+import java.util.Arrays;
+
+import static amazons.Utils.error;
+
+/** A compact, self-contained Amazons position for use by searches.
+ *  Unlike a Board, whose contents live in the shared Square objects, a
+ *  Position owns its contents, so any number of them may be searched
+ *  independently (and from different threads).  Moves are represented
+ *  as ints packed by pack(FROM, TO, SPEAR), which avoids creating or
+ *  looking up Move objects in the inner loops of a search.  Each
+ *  Position also maintains a Zobrist hash key of its contents and side
+ *  to move, together with the keys of its images under each of the
+ *  board's symmetries, from which it derives a canonical key shared by
+ *  all positions that are reflections or rotations of each other.
+ *  @author Sasha Manghise
+ */
+final class Position {
+
+    /** Number of squares on the board. */
+    static final int SQUARES = Board.SIZE * Board.SIZE;
+
+    /** Contents codes of a square. */
+    static final byte EMPTY = 0, WHITE = 1, BLACK = 2, SPEAR = 3;
+
+    /** Maximum number of queens per side. */
+    static final int MAX_QUEENS = 4;
+
+    /** An upper bound on the number of legal moves in any position
+     *  (each of four queens has at most 35 destinations, from each of
+     *  which at most 35 squares are reachable). */
+    static final int MAX_MOVES = MAX_QUEENS * 35 * 35;
+
+    /** A new Position in the initial Amazons position. */
+    Position() {
+        init();
+    }
+
+    /** A new Position holding the contents of BOARD, with the side to
+     *  move given by BOARD.turn(). */
+    Position(Board board) {
+        load(board);
+    }
+
+    /** A new copy of MODEL (not including its move history). */
+    Position(Position model) {
+        copy(model);
+    }
+
+    /** Set me to the initial position (as for Board.init), clearing my
+     *  move history. */
+    void init() {
+        Arrays.fill(_cells, EMPTY);
+        _queenCount[0] = _queenCount[1] = 0;
+        for (int s : INITIAL_WHITE) {
+            _cells[s] = WHITE;
+            _queens[0][_queenCount[0]++] = s;
+        }
+        for (int s : INITIAL_BLACK) {
+            _cells[s] = BLACK;
+            _queens[1][_queenCount[1]++] = s;
+        }
+        _side = 0;
+        _numMoves = 0;
+        computeHashes();
+    }
+
+    /** Set me to the contents and side to move of BOARD, clearing my move
+     *  history. */
+    void load(Board board) {
+        for (int s = 0; s < SQUARES; s += 1) {
+            _cells[s] = code(board.get(Square.sq(s)));
+        }
+        _side = board.turn() == Piece.BLACK ? 1 : 0;
+        setUp();
+    }
+
+    /** Set me to the contents CELLS (a contents code for each square)
+     *  with SIDE (0 for WHITE, 1 for BLACK) to move, clearing my move
+     *  history. */
+    void load(byte[] cells, int side) {
+        System.arraycopy(cells, 0, _cells, 0, SQUARES);
+        _side = side;
+        setUp();
+    }
+
+    /** Find my queens and compute my hash keys after my contents have
+     *  been set, and clear my move history. */
+    private void setUp() {
+        _queenCount[0] = _queenCount[1] = 0;
+        for (int s = 0; s < SQUARES; s += 1) {
+            if (_cells[s] == WHITE || _cells[s] == BLACK) {
+                int side = _cells[s] - 1;
+                if (_queenCount[side] == MAX_QUEENS) {
+                    throw error("too many queens");
+                }
+                _queens[side][_queenCount[side]] = s;
+                _queenCount[side] += 1;
+            }
+        }
+        _numMoves = 0;
+        computeHashes();
+    }
+
+    /** Set me to a copy of MODEL (not including its move history). */
+    void copy(Position model) {
+        System.arraycopy(model._cells, 0, _cells, 0, SQUARES);
+        for (int side = 0; side < 2; side += 1) {
+            System.arraycopy(model._queens[side], 0, _queens[side], 0,
+                             MAX_QUEENS);
+            _queenCount[side] = model._queenCount[side];
+        }
+        _side = model._side;
+        _numMoves = 0;
+        System.arraycopy(model._hashes, 0, _hashes, 0, Symmetry.COUNT);
+    }
+
+    /** Return the contents code of square S. */
+    int get(int s) {
+        return _cells[s];
+    }
+
+    /** Return the side to move: 0 for WHITE and 1 for BLACK. */
+    int side() {
+        return _side;
+    }
+
+    /** Return the Piece whose move it is. */
+    Piece turn() {
+        return _side == 0 ? Piece.WHITE : Piece.BLACK;
+    }
+
+    /** Return the number of queens of SIDE. */
+    int queenCount(int side) {
+        return _queenCount[side];
+    }
+
+    /** Return the square of queen #K of SIDE. */
+    int queen(int side, int k) {
+        return _queens[side][k];
+    }
+
+    /** Return my Zobrist hash key. */
+    long hash() {
+        return _hashes[0];
+    }
+
+    /** Return the hash key of my image under symmetry #T (see
+     *  Symmetry). */
+    long hash(int t) {
+        return _hashes[t];
+    }
+
+    /** Return my canonical hash key: the least of the keys of my images
+     *  under all symmetries.  Positions that are symmetric images of
+     *  each other have the same canonical key. */
+    long canonicalHash() {
+        return _hashes[canonicalSymmetry()];
+    }
+
+    /** Return the number of a symmetry that takes me to the image whose
+     *  key is my canonical hash key. */
+    int canonicalSymmetry() {
+        int best = 0;
+        for (int t = 1; t < Symmetry.COUNT; t += 1) {
+            if (_hashes[t] < _hashes[best]) {
+                best = t;
+            }
+        }
+        return best;
+    }
+
+    /** Return the number of moves made on me that have not been
+     *  undone. */
+    int numMoves() {
+        return _numMoves;
+    }
+
+    /** Return the number of empty squares. */
+    int emptyCount() {
+        int n = 0;
+        for (int s = 0; s < SQUARES; s += 1) {
+            if (_cells[s] == EMPTY) {
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    /** Return the hash key I would have after making MOVE, without
+     *  making it. */
+    long hashAfter(int move) {
+        int piece = _cells[from(move)];
+        long[][] zobrist = ZOBRIST[0];
+        return _hashes[0] ^ zobrist[piece][from(move)]
+            ^ zobrist[piece][to(move)]
+            ^ zobrist[SPEAR][spear(move)] ^ BLACK_TO_MOVE;
+    }
+
+    /** Make MOVE, assuming it is legal, and give the turn to the
+     *  opponent. */
+    void makeMove(int move) {
+        int from = from(move), to = to(move), spear = spear(move);
+        byte piece = _cells[from];
+        _cells[from] = EMPTY;
+        _cells[to] = piece;
+        _cells[spear] = SPEAR;
+        int[] queens = _queens[_side];
+        for (int k = 0; k < _queenCount[_side]; k += 1) {
+            if (queens[k] == from) {
+                queens[k] = to;
+                break;
+            }
+        }
+        updateHashes(piece, from, to, spear);
+        _history[_numMoves] = move;
+        _numMoves += 1;
+        _side ^= 1;
+    }
+
+    /** Undo the last move made on me.  Has no effect if there is none. */
+    void undo() {
+        if (_numMoves == 0) {
+            return;
+        }
+        _numMoves -= 1;
+        int move = _history[_numMoves];
+        int from = from(move), to = to(move), spear = spear(move);
+        _side ^= 1;
+        _cells[spear] = EMPTY;
+        byte piece = _cells[to];
+        _cells[to] = EMPTY;
+        _cells[from] = piece;
+        int[] queens = _queens[_side];
+        for (int k = 0; k < _queenCount[_side]; k += 1) {
+            if (queens[k] == to) {
+                queens[k] = from;
+                break;
+            }
+        }
+        updateHashes(piece, from, to, spear);
+    }
+
+    /** Update my hash keys for the move of PIECE from FROM to TO with a
+     *  spear thrown to SPEAR, or for the reverse of that move. */
+    private void updateHashes(byte piece, int from, int to, int spear) {
+        for (int t = 0; t < Symmetry.COUNT; t += 1) {
+            long[][] zobrist = ZOBRIST[t];
+            _hashes[t] ^= zobrist[piece][from] ^ zobrist[piece][to]
+                ^ zobrist[SPEAR][spear] ^ BLACK_TO_MOVE;
+        }
+    }
+
+    /** Store all legal moves for the side to move into MOVES, starting at
+     *  index 0, and return their number.  MOVES must have room for
+     *  MAX_MOVES values. */
+    int legalMoves(int[] moves) {
+        int n = 0;
+        byte[] cells = _cells;
+        for (int k = 0; k < _queenCount[_side]; k += 1) {
+            int from = _queens[_side][k];
+            byte piece = cells[from];
+            cells[from] = EMPTY;
+            for (int d = 0; d < 8; d += 1) {
+                for (int to = NEIGHBOR[from][d]; to >= 0 && cells[to] == EMPTY;
+                     to = NEIGHBOR[to][d]) {
+                    for (int e = 0; e < 8; e += 1) {
+                        for (int sp = NEIGHBOR[to][e];
+                             sp >= 0 && cells[sp] == EMPTY;
+                             sp = NEIGHBOR[sp][e]) {
+                            moves[n] = pack(from, to, sp);
+                            n += 1;
+                        }
+                    }
+                }
+            }
+            cells[from] = piece;
+        }
+        return n;
+    }
+
+    /** Return true iff MOVE (packed) is legal for the side to move. */
+    boolean isLegal(int move) {
+        int from = from(move), to = to(move), spear = spear(move);
+        byte piece = _cells[from];
+        if (piece != (_side == 0 ? WHITE : BLACK)) {
+            return false;
+        }
+        _cells[from] = EMPTY;
+        boolean result = isOpenLine(from, to) && isOpenLine(to, spear);
+        _cells[from] = piece;
+        return result;
+    }
+
+    /** Return true iff TO is a queen move from FROM over empty squares,
+     *  ending on an empty square. */
+    private boolean isOpenLine(int from, int to) {
+        int dc = Integer.signum(to % Board.SIZE - from % Board.SIZE),
+            dr = Integer.signum(to / Board.SIZE - from / Board.SIZE);
+        for (int d = 0; d < 8; d += 1) {
+            if (Square.DIR[d][0] == dc && Square.DIR[d][1] == dr) {
+                for (int s = NEIGHBOR[from][d]; s >= 0 && _cells[s] == EMPTY;
+                     s = NEIGHBOR[s][d]) {
+                    if (s == to) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /** Return true iff SIDE has a queen with an empty neighbor. */
+    boolean canMove(int side) {
+        for (int k = 0; k < _queenCount[side]; k += 1) {
+            int[] next = NEIGHBOR[_queens[side][k]];
+            for (int d = 0; d < 8; d += 1) {
+                if (next[d] >= 0 && _cells[next[d]] == EMPTY) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Return the winner in the current position (the opponent of the
+     *  side to move, if that side cannot move), or null if the game is
+     *  not yet finished. */
+    Piece winner() {
+        if (canMove(_side)) {
+            return null;
+        }
+        return _side == 0 ? Piece.BLACK : Piece.WHITE;
+    }
+
+    /** Return the packed move FROM-TO(SPEAR), where all three are
+     *  square indices. */
+    static int pack(int from, int to, int spear) {
+        return from | (to << 7) | (spear << 14);
+    }
+
+    /** Return the packed form of MOVE. */
+    static int pack(Move move) {
+        return pack(move.from().index(), move.to().index(),
+                    move.spear().index());
+    }
+
+    /** Return the square moved from in packed MOVE. */
+    static int from(int move) {
+        return move & 0x7f;
+    }
+
+    /** Return the square moved to in packed MOVE. */
+    static int to(int move) {
+        return (move >> 7) & 0x7f;
+    }
+
+    /** Return the square of the spear in packed MOVE. */
+    static int spear(int move) {
+        return (move >> 14) & 0x7f;
+    }
+
+    /** Return the Move denoted by packed MOVE. */
+    static Move toMove(int move) {
+        return Move.mv(Square.sq(from(move)), Square.sq(to(move)),
+                       Square.sq(spear(move)));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (int row = Board.SIZE - 1; row >= 0; row -= 1) {
+            result.append("  ");
+            for (int col = 0; col < Board.SIZE; col += 1) {
+                result.append(' ').append(SYMBOLS[_cells[row * Board.SIZE
+                                                         + col]]);
+            }
+            result.append('\n');
+        }
+        return result.toString();
+    }
+
+    /** Return the contents code for P. */
+    private static byte code(Piece p) {
+        switch (p) {
+        case WHITE:
+            return WHITE;
+        case BLACK:
+            return BLACK;
+        case SPEAR:
+            return SPEAR;
+        default:
+            return EMPTY;
+        }
+    }
+
+    /** Compute my hash keys from scratch. */
+    private void computeHashes() {
+        for (int t = 0; t < Symmetry.COUNT; t += 1) {
+            long key = _side == 1 ? BLACK_TO_MOVE : 0;
+            for (int s = 0; s < SQUARES; s += 1) {
+                if (_cells[s] != EMPTY) {
+                    key ^= ZOBRIST[t][_cells[s]][s];
+                }
+            }
+            _hashes[t] = key;
+        }
+    }
+
+    /** NEIGHBOR[s][d] is the index of the square one step from square
+     *  index S in direction D (as for Square.DIR), or -1 if off the
+     *  board. */
+    static final int[][] NEIGHBOR = new int[SQUARES][8];
+
+    /** Zobrist keys: ZOBRIST[0][c][s] is the key for contents code C on
+     *  square S, and ZOBRIST[t][c][s] is ZOBRIST[0][c][s'], where S' is
+     *  the image of S under symmetry #T. */
+    private static final long[][][] ZOBRIST =
+        new long[Symmetry.COUNT][4][SQUARES];
+
+    /** Zobrist key for BLACK to move. */
+    private static final long BLACK_TO_MOVE;
+
+    /** Initial squares of the WHITE and BLACK queens. */
+    private static final int[]
+        INITIAL_WHITE = { 30, 3, 6, 39 },
+        INITIAL_BLACK = { 60, 93, 96, 69 };
+
+    /** Board symbols for each contents code. */
+    private static final String[] SYMBOLS = { "-", "W", "B", "S" };
+
+    static {
+        for (int s = 0; s < SQUARES; s += 1) {
+            int col = s % Board.SIZE, row = s / Board.SIZE;
+            for (int d = 0; d < 8; d += 1) {
+                int c = col + Square.DIR[d][0], r = row + Square.DIR[d][1];
+                NEIGHBOR[s][d] =
+                    Square.exists(c, r) ? r * Board.SIZE + c : -1;
+            }
+        }
+        long seed = 0x5eed_a3a2_0e5fL;
+        for (int c = 1; c < 4; c += 1) {
+            for (int s = 0; s < SQUARES; s += 1) {
+                seed += 0x9e3779b97f4a7c15L;
+                ZOBRIST[0][c][s] = mix(seed);
+            }
+        }
+        for (int t = 1; t < Symmetry.COUNT; t += 1) {
+            for (int c = 1; c < 4; c += 1) {
+                for (int s = 0; s < SQUARES; s += 1) {
+                    ZOBRIST[t][c][s] = ZOBRIST[0][c][Symmetry.square(t, s)];
+                }
+            }
+        }
+        BLACK_TO_MOVE = mix(seed + 0x9e3779b97f4a7c15L);
+    }
+
+    /** Return a well-scrambled function of X (the SplitMix64 finalizer). */
+    static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+
+    /** Contents of each square. */
+    private final byte[] _cells = new byte[SQUARES];
+
+    /** _queens[side][k] is the square of queen #k of side. */
+    private final int[][] _queens = new int[2][MAX_QUEENS];
+
+    /** Number of queens of each side. */
+    private final int[] _queenCount = new int[2];
+
+    /** The side to move (0 for WHITE, 1 for BLACK). */
+    private int _side;
+
+    /** My Zobrist keys: _hashes[t] is the key of my image under
+     *  symmetry #T, so that _hashes[0] is my own key. */
+    private final long[] _hashes = new long[Symmetry.COUNT];
+
+    /** Moves made on me, in order. */
+    private final int[] _history = new int[SQUARES];
+
+    /** Number of entries in _history. */
+    private int _numMoves;
+}
@@ -0,0 +1,211 @@
+package amazons;
+
+import java.util.Arrays;
+
+/** A depth-first proof-number (df-pn) search that proves or disproves a
+ *  win for the side to move in a Position.  Proof and disproof numbers
+ *  are kept in a fixed-size transposition table, so memory use is
+ *  bounded regardless of how long the search runs, and each call to
+ *  prove is limited to a budget of nodes.  Because the table persists
+ *  between calls, a win proven once can be followed move by move
+ *  afterward (see winningMove) without searching again.
+ *
+ *  Numbers are stored from the point of view of the side to move in the
+ *  position (the "negamax" formulation): PHI is the proof number of a
+ *  win for the side to move and DELTA is its disproof number.  A player
+ *  with no legal move loses.
+ *  @author Sasha Manghise
+ */
+final class ProofSearch {
+
+    /** Results of prove. */
+    static final int WIN = 1, LOSS = -1, UNKNOWN = 0;
+
+    /** Proof or disproof number of a settled position. */
+    static final int INFINITY = Integer.MAX_VALUE / 2;
+
+    /** A new search whose table holds 2**TABLEBITS entries and that
+     *  examines at most NODEBUDGET nodes per call to prove. */
+    ProofSearch(int tableBits, long nodeBudget) {
+        int size = 1 << tableBits;
+        _keys = new long[size];
+        _phi = new int[size];
+        _delta = new int[size];
+        _mask = size - 1;
+        _nodeBudget = nodeBudget;
+    }
+
+    /** Return WIN if the side to move in POSITION has been proven to win,
+     *  LOSS if it has been proven to lose, and otherwise UNKNOWN, searching
+     *  at most my node budget to decide.  Does not modify POSITION. */
+    int prove(Position position) {
+        Position pos = new Position(position);
+        _nodes = 0;
+        mid(pos, INFINITY, INFINITY, 0);
+        return result(pos.hash());
+    }
+
+    /** Return the result already recorded for POSITION (as for prove),
+     *  without searching. */
+    int result(Position position) {
+        return result(position.hash());
+    }
+
+    /** Return a move for the side to move in POSITION that leads to a
+     *  position already proven lost for the opponent, or -1 if none is
+     *  recorded.  Does not search. */
+    int winningMove(Position position) {
+        if (result(position.hash()) != WIN) {
+            return -1;
+        }
+        int[] moves = new int[Position.MAX_MOVES];
+        int n = position.legalMoves(moves);
+        for (int i = 0; i < n; i += 1) {
+            int k = find(position.hashAfter(moves[i]));
+            if (k >= 0 && _delta[k] == 0) {
+                return moves[i];
+            }
+        }
+        return -1;
+    }
+
+    /** Stop the current call to prove, if any, as soon as possible, and
+     *  make any later calls return at once until resetStop. */
+    void stop() {
+        _stopped = true;
+    }
+
+    /** Cancel any request to stop, so that later calls to prove search
+     *  again. */
+    void resetStop() {
+        _stopped = false;
+    }
+
+    /** Return the number of nodes examined by the last call to prove. */
+    long nodes() {
+        return _nodes;
+    }
+
+    /** Forget all recorded results. */
+    void clear() {
+        Arrays.fill(_keys, 0);
+    }
+
+    /** Return the result recorded under KEY. */
+    private int result(long key) {
+        int k = find(key);
+        if (k < 0) {
+            return UNKNOWN;
+        } else if (_phi[k] == 0) {
+            return WIN;
+        } else if (_delta[k] == 0) {
+            return LOSS;
+        }
+        return UNKNOWN;
+    }
+
+    /** Search POS, at DEPTH plies below the root, until its proof number
+     *  reaches THPHI or its disproof number reaches THDELTA, or the node
+     *  budget is exhausted, recording the results in the table.  POS is
+     *  restored on return. */
+    private void mid(Position pos, int thPhi, int thDelta, int depth) {
+        _nodes += 1;
+        long key = pos.hash();
+        int[] moves = moveBuffer(depth);
+        int n = pos.legalMoves(moves);
+        if (n == 0) {
+            store(key, INFINITY, 0);
+            return;
+        }
+        while (_nodes < _nodeBudget && !_stopped) {
+            int delta = 0;
+            int best = -1, bestPhi = 0;
+            int bestDelta = INFINITY, secondDelta = INFINITY;
+            for (int i = 0; i < n; i += 1) {
+                int k = find(pos.hashAfter(moves[i]));
+                int cPhi = k < 0 ? 1 : _phi[k],
+                    cDelta = k < 0 ? 1 : _delta[k];
+                delta = Math.min(INFINITY, delta + cPhi);
+                if (cDelta < bestDelta) {
+                    secondDelta = bestDelta;
+                    bestDelta = cDelta;
+                    bestPhi = cPhi;
+                    best = i;
+                } else if (cDelta < secondDelta) {
+                    secondDelta = cDelta;
+                }
+            }
+            int phi = bestDelta;
+            if (phi >= thPhi || delta >= thDelta) {
+                store(key, phi, delta);
+                return;
+            }
+            int childThPhi =
+                (int) Math.min(INFINITY, (long) thDelta - delta + bestPhi);
+            int childThDelta = Math.min(thPhi, secondDelta + 1);
+            pos.makeMove(moves[best]);
+            mid(pos, childThPhi, childThDelta, depth + 1);
+            pos.undo();
+        }
+    }
+
+    /** Return a move buffer for use at DEPTH plies below the root. */
+    private int[] moveBuffer(int depth) {
+        if (_moveBuffers[depth] == null) {
+            _moveBuffers[depth] = new int[Position.MAX_MOVES];
+        }
+        return _moveBuffers[depth];
+    }
+
+    /** Return the table index holding KEY, or -1 if it is absent. */
+    private int find(long key) {
+        int k = (int) key & _mask;
+        if (_keys[k] == key) {
+            return k;
+        }
+        k ^= 1;
+        if (_keys[k] == key) {
+            return k;
+        }
+        return -1;
+    }
+
+    /** Record PHI and DELTA for KEY.  Each key may occupy either slot of a
+     *  two-entry bucket; settled results are preferred over unsettled ones
+     *  when one must be replaced. */
+    private void store(long key, int phi, int delta) {
+        int k = find(key);
+        if (k < 0) {
+            k = (int) key & _mask;
+            if (settled(k) && !settled(k ^ 1)) {
+                k ^= 1;
+            }
+        }
+        _keys[k] = key;
+        _phi[k] = phi;
+        _delta[k] = delta;
+    }
+
+    /** Return true iff entry K holds a proven or disproven position. */
+    private boolean settled(int k) {
+        return _keys[k] != 0 && (_phi[k] == 0 || _delta[k] == 0);
+    }
+
+    /** Hash keys of the table entries. */
+    private final long[] _keys;
+    /** Proof numbers of the table entries. */
+    private final int[] _phi;
+    /** Disproof numbers of the table entries. */
+    private final int[] _delta;
+    /** Mask selecting a table index from a key. */
+    private final int _mask;
+    /** Maximum number of nodes per call to prove. */
+    private final long _nodeBudget;
+    /** Number of nodes examined so far by the current call to prove. */
+    private long _nodes;
+    /** True when calls to prove are to stop, until resetStop. */
+    private volatile boolean _stopped;
+    /** Move buffers, by depth below the root.  A game lasts at most one
+     *  move per square. */
+    private final int[][] _moveBuffers = new int[Position.SQUARES + 1][];
+}
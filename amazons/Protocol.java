@@ -0,0 +1,250 @@
+package amazons;
+
+import java.io.PrintStream;
+
+import static amazons.Utils.error;
+
+/** The engine protocol, for play under the control of programs such as
+ *  tournament managers, in the manner of UCI.  Its commands are:
+ *  <dl>
+ *  <dt>isready</dt>
+ *  <dd>Reply "readyok".</dd>
+ *  <dt>position [startpos] [moves] MOVE...</dt>
+ *  <dd>Set up the position reached by MOVEs from the initial
+ *      position.</dd>
+ *  <dt>go [ponder] [movetime N | depth N | infinite]</dt>
+ *  <dd>Search the current position, for N milliseconds, to N plies, or
+ *      until stopped (the default), and then reply "bestmove MOVE" (or
+ *      "bestmove none" if there is no move).  With "ponder", the search
+ *      is on the opponent's time: its time does not start, and its
+ *      best move is not given, until "ponderhit" or "stop".</dd>
+ *  <dt>stop</dt>
+ *  <dd>End the search, which gives its best move.</dd>
+ *  <dt>ponderhit</dt>
+ *  <dd>The opponent has made the move pondered upon: continue the
+ *      search as if it had been started without "ponder".</dd>
+ *  <dt>info</dt>
+ *  <dd>Repeat the latest info line.</dd>
+ *  <dt>quit</dt>
+ *  <dd>End the search, if any, and exit.</dd>
+ *  </dl>
+ *  The search runs on its own thread, so that commands (such as "stop")
+ *  are read and acted on while it runs.  After each of its iterations,
+ *  it writes a line "info depth D score S nodes N time MS nps N pv
+ *  MOVE".  The search has the shared Board to itself while it runs:
+ *  "position" and "go" first end any search in progress.
+ *  @author Sasha Manghise
+ */
+final class Protocol {
+
+    /** Maximum depth of searches not limited in depth. */
+    static final int MAX_DEPTH = Board.SIZE * Board.SIZE;
+
+    /** A protocol for searches of BOARD by ENGINE, writing replies to
+     *  OUT. */
+    Protocol(Board board, AI engine, PrintStream out) {
+        _board = board;
+        _engine = engine;
+        _out = out;
+    }
+
+    /** Execute the command CMND, throwing an IllegalArgumentException if
+     *  it is erroneous.  Return false iff CMND is "quit". */
+    boolean execute(String cmnd) {
+        String[] words = cmnd.trim().toLowerCase().split("\\s+");
+        switch (words[0]) {
+        case "":
+            break;
+        case "isready":
+            reply("readyok");
+            break;
+        case "position":
+            finish();
+            setPosition(words);
+            break;
+        case "go":
+            finish();
+            go(words);
+            break;
+        case "stop":
+            stop();
+            break;
+        case "ponderhit":
+            ponderhit();
+            break;
+        case "info":
+            String info = _info;
+            reply(info == null ? "info string no search" : info);
+            break;
+        case "quit":
+            finish();
+            return false;
+        default:
+            throw error("Bad command: %s", cmnd.trim());
+        }
+        return true;
+    }
+
+    /** Report the error MESSAGE. */
+    void reportError(String message) {
+        reply("info string error: " + message);
+    }
+
+    /** End any search in progress, waiting for it to give its move. */
+    void finish() {
+        if (_searcher == null) {
+            return;
+        }
+        stop();
+        try {
+            _searcher.join();
+        } catch (InterruptedException excp) {
+            throw new IllegalStateException("interrupted");
+        }
+        _searcher = null;
+    }
+
+    /** Set up the position given by WORDS, a "position" command. */
+    private void setPosition(String[] words) {
+        Position check = new Position();
+        int first = 1;
+        while (first < words.length && (words[first].equals("startpos")
+                                        || words[first].equals("moves"))) {
+            first += 1;
+        }
+        for (int i = first; i < words.length; i += 1) {
+            int move = Move.pack(words[i]);
+            if (move < 0 || !check.isLegal(move)) {
+                throw error("Invalid move: %s", words[i]);
+            }
+            check.makeMove(move);
+        }
+        _board.init();
+        for (int i = first; i < words.length; i += 1) {
+            _board.makeMove(Move.mv(words[i]));
+            _board.setTurn(_board.turn().opponent());
+        }
+        _board.findAllQueens(_board.turn());
+    }
+
+    /** Start the search described by WORDS, a "go" command. */
+    private void go(String[] words) {
+        boolean ponder = false;
+        int depth = MAX_DEPTH;
+        long movetime = -1;
+        for (int i = 1; i < words.length; i += 1) {
+            switch (words[i]) {
+            case "ponder":
+                ponder = true;
+                break;
+            case "infinite":
+                break;
+            case "movetime":
+            case "depth":
+                if (i + 1 == words.length) {
+                    throw error("missing value for %s", words[i]);
+                }
+                long value;
+                try {
+                    value = Long.parseLong(words[i + 1]);
+                } catch (NumberFormatException excp) {
+                    throw error("bad value for %s", words[i]);
+                }
+                if (value <= 0) {
+                    throw error("bad value for %s", words[i]);
+                }
+                if (words[i].equals("depth")) {
+                    depth = (int) Math.min(value, MAX_DEPTH);
+                } else {
+                    movetime = value;
+                }
+                i += 1;
+                break;
+            default:
+                throw error("Bad go option: %s", words[i]);
+            }
+        }
+        _engine.resetSearch();
+        _movetime = movetime;
+        _pondering = ponder;
+        _info = null;
+        if (!ponder && movetime > 0) {
+            _engine.setDeadline(System.nanoTime() + movetime * 1_000_000);
+        }
+        int maxDepth = depth;
+        _searcher = new Thread(() -> search(maxDepth), "search");
+        _searcher.setDaemon(true);
+        _searcher.start();
+    }
+
+    /** The body of the search thread: search to at most MAXDEPTH plies,
+     *  and give the best move once not pondering. */
+    private void search(int maxDepth) {
+        Move best = _engine.analyze(_board, maxDepth, this::iteration);
+        synchronized (this) {
+            while (_pondering) {
+                try {
+                    wait();
+                } catch (InterruptedException excp) {
+                    break;
+                }
+            }
+        }
+        reply("bestmove " + (best == null ? "none" : best));
+    }
+
+    /** Report an iteration of the search (see SearchListener). */
+    private void iteration(int depth, int score, long nodes, long nanos,
+                           Move best) {
+        long millis = nanos / 1_000_000;
+        String info =
+            String.format("info depth %d score %d nodes %d time %d nps %d"
+                          + " pv %s", depth, score, nodes, millis,
+                          nanos == 0 ? 0 : nodes * 1_000_000_000 / nanos,
+                          best);
+        _info = info;
+        reply(info);
+    }
+
+    /** End the current search, if any, which then gives its move. */
+    private synchronized void stop() {
+        _pondering = false;
+        notifyAll();
+        _engine.stopSearch();
+    }
+
+    /** Continue a ponder search as a normal one. */
+    private synchronized void ponderhit() {
+        if (!_pondering) {
+            return;
+        }
+        _pondering = false;
+        notifyAll();
+        if (_movetime > 0) {
+            _engine.setDeadline(System.nanoTime() + _movetime * 1_000_000);
+        }
+    }
+
+    /** Write LINE to my output. */
+    private void reply(String line) {
+        _out.println(line);
+        _out.flush();
+    }
+
+    /** The board searched. */
+    private final Board _board;
+    /** The searcher. */
+    private final AI _engine;
+    /** Destination of replies. */
+    private final PrintStream _out;
+    /** The search thread, or null if none has been started since the
+     *  last finish. */
+    private Thread _searcher;
+    /** True while the search is on the opponent's time. */
+    private boolean _pondering;
+    /** Time allowed the current search, in milliseconds, or -1 if not
+     *  limited. */
+    private long _movetime;
+    /** The latest info line, or null if none. */
+    private volatile String _info;
+}
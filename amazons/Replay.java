@@ -0,0 +1,182 @@
+package amazons;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static amazons.Utils.error;
+
+/** A fast checker of game scripts: a replay of the moves in a file of
+ *  commands (as given to a Controller) on a Position, which checks that
+ *  each is legal.  "new" starts a new game; other commands are counted
+ *  and skipped, and illegal moves are reported and skipped.  The file
+ *  is memory-mapped in large chunks and its lines are parsed in place,
+ *  without creating Strings, Moves, or Matchers, so that replay is
+ *  limited chiefly by the speed of the file system.
+ *  @author Sasha Manghise
+ */
+final class Replay {
+
+    /** Maximum number of illegal moves reported individually. */
+    static final int MAX_REPORTED = 20;
+
+    /** Replay the file named NAME, reporting illegal moves and a summary
+     *  on the standard output. */
+    void run(Path name) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel in =
+             FileChannel.open(name, StandardOpenOption.READ)) {
+            long size = in.size();
+            for (long offset = 0; offset < size; ) {
+                MappedByteBuffer chunk =
+                    in.map(FileChannel.MapMode.READ_ONLY, offset,
+                           Math.min(CHUNK_SIZE, size - offset));
+                int limit = chunk.limit();
+                if (offset + limit < size) {
+                    while (limit > 0 && chunk.get(limit - 1) != '\n') {
+                        limit -= 1;
+                    }
+                    if (limit == 0) {
+                        throw error("line too long in %s", name);
+                    }
+                }
+                replay(chunk, limit);
+                offset += limit;
+            }
+        }
+        double seconds = (System.nanoTime() - start) * 1e-9;
+        System.out.printf("%d lines, %d moves, %d illegal, %d other"
+                          + " commands, %d games finished%n",
+                          _lines, _moves, _illegal, _others, _finished);
+        System.out.printf("%.3f s, %.0f moves/s%n", seconds,
+                          _moves / seconds);
+    }
+
+    /** Return the number of legal moves replayed. */
+    long moves() {
+        return _moves;
+    }
+
+    /** Return the number of illegal moves skipped. */
+    long illegal() {
+        return _illegal;
+    }
+
+    /** Return the number of games replayed to their ends. */
+    long finished() {
+        return _finished;
+    }
+
+    /** Replay the lines in the first LIMIT bytes of BUFFER. */
+    private void replay(ByteBuffer buffer, int limit) {
+        int start = 0;
+        while (start < limit) {
+            int end = start;
+            while (end < limit && buffer.get(end) != '\n') {
+                end += 1;
+            }
+            replay(buffer, start, end);
+            start = end + 1;
+        }
+    }
+
+    /** Replay the line in bytes START through END-1 of BUFFER. */
+    private void replay(ByteBuffer buffer, int start, int end) {
+        _lines += 1;
+        for (int k = start; k < end; k += 1) {
+            if (buffer.get(k) == '#') {
+                end = k;
+                break;
+            }
+        }
+        while (start < end && buffer.get(start) <= ' ') {
+            start += 1;
+        }
+        while (end > start && buffer.get(end - 1) <= ' ') {
+            end -= 1;
+        }
+        if (start == end) {
+            return;
+        }
+        _text.set(buffer, start, end);
+        int move = Move.pack(_text);
+        if (move < 0) {
+            if ("new".contentEquals(_text)) {
+                _position.init();
+            } else {
+                _others += 1;
+            }
+        } else if (_position.isLegal(move)) {
+            _position.makeMove(move);
+            _moves += 1;
+            if (_position.winner() != null) {
+                _finished += 1;
+            }
+        } else {
+            _illegal += 1;
+            if (_illegal <= MAX_REPORTED) {
+                System.out.printf("line %d: illegal move: %s%n", _lines,
+                                  _text);
+            }
+        }
+    }
+
+    /** A view of a range of bytes of a buffer as characters, converted
+     *  to lower case. */
+    private static class Text implements CharSequence {
+
+        /** Make me a view of bytes START through END-1 of BUFFER. */
+        void set(ByteBuffer buffer, int start, int end) {
+            _buffer = buffer;
+            _start = start;
+            _end = end;
+        }
+
+        @Override
+        public int length() {
+            return _end - _start;
+        }
+
+        @Override
+        public char charAt(int k) {
+            char c = (char) (_buffer.get(_start + k) & 0xff);
+            return c >= 'A' && c <= 'Z' ? (char) (c + 'a' - 'A') : c;
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder(length());
+            for (int k = 0; k < length(); k += 1) {
+                result.append(charAt(k));
+            }
+            return result.toString();
+        }
+
+        /** The buffer I view. */
+        private ByteBuffer _buffer;
+        /** The range of bytes I view. */
+        private int _start, _end;
+    }
+
+    /** Maximum size of a mapped chunk of the file, in bytes. */
+    private static final long CHUNK_SIZE = 1 << 30;
+
+    /** The position being replayed. */
+    private final Position _position = new Position();
+    /** The current line. */
+    private final Text _text = new Text();
+    /** Number of lines read. */
+    private long _lines;
+    /** Numbers of legal moves, illegal moves, and other commands. */
+    private long _moves, _illegal, _others;
+    /** Number of games replayed to their ends. */
+    private long _finished;
+}
@@ -16,5 +16,12 @@ interface Reporter {
     /** Display MOVE as needed. */
     void reportMove(Move move);
 
+    /** Display TEXT exactly as given, as for the board printed by the
+     *  "dump" command.  By default, print it on the standard output, as
+     *  a Controller does. */
+    default void reportText(String text) {
+        System.out.print(text);
+    }
+
 }
 
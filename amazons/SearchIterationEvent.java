@@ -0,0 +1,36 @@
+package amazons;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** A Flight Recorder event for one iteration of an AI's iterative
+ *  deepening search.  The event's duration is that of the iteration.
+ *  @author Sasha Manghise
+ */
+@Name("amazons.SearchIteration")
+@Label("Search Iteration")
+@Category({ "Amazons", "Search" })
+@Description("One iteration of iterative deepening")
+@StackTrace(false)
+final class SearchIterationEvent extends jdk.jfr.Event {
+
+    /** Depth of the iteration, in plies. */
+    @Label("Depth")
+    int depth;
+
+    /** Value of the best move found. */
+    @Label("Score")
+    int score;
+
+    /** Nodes searched by the iteration. */
+    @Label("Nodes")
+    long nodes;
+
+    /** The best move found (the principal variation's first move), or
+     *  null if none. */
+    @Label("Best Move")
+    String move;
+}
@@ -0,0 +1,14 @@
+package amazons;
+
+/** A receiver of the results of the iterations of a search, as they are
+ *  completed (see AI.analyze).
+ *  @author Sasha Manghise
+ */
+interface SearchListener {
+
+    /** Receive the result of the iteration to DEPTH plies: its best move,
+     *  BEST, of value SCORE, found after NODES nodes in all and NANOS
+     *  nanoseconds since the search began. */
+    void iteration(int depth, int score, long nodes, long nanos, Move best);
+
+}
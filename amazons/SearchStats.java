@@ -0,0 +1,280 @@
+package amazons;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** Statistics of a search: nodes searched at each ply, beta cutoffs
+ *  (and how many came from the first move tried), static evaluations
+ *  and the time they took, probes of position tables and their hits, and
+ *  the depth, nodes, and time of each iteration of iterative deepening.
+ *  Counters are LongAdders, so any number of search threads may update
+ *  them without contention.  The per-iteration records, by contrast,
+ *  are made only by the thread driving the search.
+ *  @author Sasha Manghise
+ */
+final class SearchStats {
+
+    /** Maximum ply counted separately; deeper plies are counted with
+     *  it. */
+    static final int MAX_PLY = 63;
+
+    /** Maximum number of iterations recorded. */
+    static final int MAX_ITERATIONS = 64;
+
+    /** Column names for the rows returned by csv. */
+    static final String CSV_HEADER =
+        "move,depth,nodes,cutoffs,first_cutoffs,branching,evaluations,"
+        + "eval_ns,probes,hits,time_ns";
+
+    /** New, zeroed statistics. */
+    SearchStats() {
+        for (int p = 0; p <= MAX_PLY; p += 1) {
+            _plyNodes[p] = new LongAdder();
+        }
+    }
+
+    /** Reset all counts to 0 and forget all iterations. */
+    void reset() {
+        for (LongAdder count : _plyNodes) {
+            count.reset();
+        }
+        _cutoffs.reset();
+        _firstCutoffs.reset();
+        _evaluations.reset();
+        _evaluationTime.reset();
+        _probes.reset();
+        _hits.reset();
+        _iterations = 0;
+    }
+
+    /** Count a node searched at PLY plies below the root. */
+    void node(int ply) {
+        _plyNodes[Math.min(ply, MAX_PLY)].increment();
+    }
+
+    /** Count a beta cutoff, caused by the first move tried iff FIRST. */
+    void cutoff(boolean first) {
+        _cutoffs.increment();
+        if (first) {
+            _firstCutoffs.increment();
+        }
+    }
+
+    /** Count a static evaluation that took NANOS nanoseconds. */
+    void evaluation(long nanos) {
+        _evaluations.increment();
+        _evaluationTime.add(nanos);
+    }
+
+    /** Count a probe of a position table, which found an entry iff
+     *  HIT. */
+    void probe(boolean hit) {
+        _probes.increment();
+        if (hit) {
+            _hits.increment();
+        }
+    }
+
+    /** Record the completion of an iteration to DEPTH plies that took
+     *  NANOS nanoseconds.  The iteration's nodes are those counted since
+     *  the previous iteration ended. */
+    void iteration(int depth, long nanos) {
+        if (_iterations == MAX_ITERATIONS) {
+            return;
+        }
+        long total = nodes();
+        long before = _iterations == 0 ? 0 : _iterationEnd[_iterations - 1];
+        _iterationDepth[_iterations] = depth;
+        _iterationEnd[_iterations] = total;
+        _iterationNodes[_iterations] = total - before;
+        _iterationTime[_iterations] = nanos;
+        _iterations += 1;
+    }
+
+    /** Return the total number of nodes searched. */
+    long nodes() {
+        long total = 0;
+        for (LongAdder count : _plyNodes) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    /** Return the number of nodes searched at PLY plies below the root
+     *  (or at PLY or more, if PLY is MAX_PLY). */
+    long nodes(int ply) {
+        return _plyNodes[ply].sum();
+    }
+
+    /** Return the number of beta cutoffs. */
+    long cutoffs() {
+        return _cutoffs.sum();
+    }
+
+    /** Return the number of beta cutoffs caused by the first move
+     *  tried. */
+    long firstCutoffs() {
+        return _firstCutoffs.sum();
+    }
+
+    /** Return the number of static evaluations. */
+    long evaluations() {
+        return _evaluations.sum();
+    }
+
+    /** Return the total time taken by static evaluations, in
+     *  nanoseconds. */
+    long evaluationTime() {
+        return _evaluationTime.sum();
+    }
+
+    /** Return the number of position table probes. */
+    long probes() {
+        return _probes.sum();
+    }
+
+    /** Return the number of position table probes that found an
+     *  entry. */
+    long hits() {
+        return _hits.sum();
+    }
+
+    /** Return the number of iterations recorded. */
+    int iterations() {
+        return _iterations;
+    }
+
+    /** Return the depth of iteration #K. */
+    int iterationDepth(int k) {
+        return _iterationDepth[k];
+    }
+
+    /** Return the number of nodes searched by iteration #K. */
+    long iterationNodes(int k) {
+        return _iterationNodes[k];
+    }
+
+    /** Return the time taken by iteration #K, in nanoseconds. */
+    long iterationTime(int k) {
+        return _iterationTime[k];
+    }
+
+    /** Return the effective branching factor: the ratio of the nodes of
+     *  the last iteration to those of the one before, or with fewer than
+     *  two iterations, the number of nodes one ply below the root per
+     *  root node.  Returns 0 if nothing has been searched. */
+    double branchingFactor() {
+        if (_iterations >= 2 && _iterationNodes[_iterations - 2] > 0) {
+            return (double) _iterationNodes[_iterations - 1]
+                / _iterationNodes[_iterations - 2];
+        }
+        long roots = nodes(0);
+        return roots == 0 ? 0 : (double) nodes(1) / roots;
+    }
+
+    /** Return the deepest ply at which a node was searched, or -1 if
+     *  none was. */
+    int maxPly() {
+        for (int p = MAX_PLY; p >= 0; p -= 1) {
+            if (nodes(p) > 0) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    /** Return the total time of all iterations, in nanoseconds. */
+    long time() {
+        long total = 0;
+        for (int k = 0; k < _iterations; k += 1) {
+            total += _iterationTime[k];
+        }
+        return total;
+    }
+
+    /** Return a one-line human-readable summary. */
+    String summary() {
+        StringBuilder result = new StringBuilder();
+        long cutoffs = cutoffs();
+        result.append(String.format("%d nodes (by ply", nodes()));
+        for (int p = 0; p <= maxPly(); p += 1) {
+            result.append(' ').append(nodes(p));
+        }
+        result.append(String.format(
+            "), %d cutoffs (%.0f%% first), branching %.1f,"
+            + " %d evals in %.1f ms, %d/%d table hits, iterations",
+            cutoffs, cutoffs == 0 ? 0.0 : 100.0 * firstCutoffs() / cutoffs,
+            branchingFactor(), evaluations(), evaluationTime() * 1e-6,
+            hits(), probes()));
+        for (int k = 0; k < _iterations; k += 1) {
+            result.append(String.format(" %d:%.1fms", _iterationDepth[k],
+                                        _iterationTime[k] * 1e-6));
+        }
+        return result.toString();
+    }
+
+    /** Return a row of comma-separated values, in the order given by
+     *  CSV_HEADER, for a search that chose MOVE. */
+    String csv(Move move) {
+        return String.format("%s,%d,%d,%d,%d,%.3f,%d,%d,%d,%d,%d",
+                             move, depth(), nodes(), cutoffs(),
+                             firstCutoffs(), branchingFactor(),
+                             evaluations(), evaluationTime(), probes(),
+                             hits(), time());
+    }
+
+    /** Return a JSON object describing a search that chose MOVE. */
+    String json(Move move) {
+        StringBuilder plies = new StringBuilder();
+        for (int p = 0; p <= maxPly(); p += 1) {
+            plies.append(p == 0 ? "" : ",").append(nodes(p));
+        }
+        StringBuilder iterations = new StringBuilder();
+        for (int k = 0; k < _iterations; k += 1) {
+            iterations.append(k == 0 ? "" : ",")
+                .append(String.format("{\"depth\":%d,\"nodes\":%d,"
+                                      + "\"time_ns\":%d}",
+                                      _iterationDepth[k], _iterationNodes[k],
+                                      _iterationTime[k]));
+        }
+        return String.format("{\"move\":%s,\"nodes\":%d,\"ply_nodes\":[%s],"
+                             + "\"cutoffs\":%d,\"first_cutoffs\":%d,"
+                             + "\"branching\":%.3f,\"evaluations\":%d,"
+                             + "\"eval_ns\":%d,\"probes\":%d,\"hits\":%d,"
+                             + "\"iterations\":[%s]}",
+                             move == null ? "null" : "\"" + move + "\"",
+                             nodes(), plies, cutoffs(), firstCutoffs(),
+                             branchingFactor(), evaluations(),
+                             evaluationTime(), probes(), hits(), iterations);
+    }
+
+    /** Return the depth of the last iteration, or 0 if none. */
+    private int depth() {
+        return _iterations == 0 ? 0 : _iterationDepth[_iterations - 1];
+    }
+
+    /** Nodes searched at each ply. */
+    private final LongAdder[] _plyNodes = new LongAdder[MAX_PLY + 1];
+    /** Beta cutoffs. */
+    private final LongAdder _cutoffs = new LongAdder();
+    /** Beta cutoffs by the first move tried. */
+    private final LongAdder _firstCutoffs = new LongAdder();
+    /** Static evaluations. */
+    private final LongAdder _evaluations = new LongAdder();
+    /** Total time of static evaluations, in nanoseconds. */
+    private final LongAdder _evaluationTime = new LongAdder();
+    /** Table probes. */
+    private final LongAdder _probes = new LongAdder();
+    /** Table probes that hit. */
+    private final LongAdder _hits = new LongAdder();
+
+    /** Number of iterations recorded. */
+    private int _iterations;
+    /** Depth of each iteration. */
+    private final int[] _iterationDepth = new int[MAX_ITERATIONS];
+    /** Total nodes at the end of each iteration. */
+    private final long[] _iterationEnd = new long[MAX_ITERATIONS];
+    /** Nodes searched by each iteration. */
+    private final long[] _iterationNodes = new long[MAX_ITERATIONS];
+    /** Time taken by each iteration, in nanoseconds. */
+    private final long[] _iterationTime = new long[MAX_ITERATIONS];
+}
@@ -0,0 +1,342 @@
+package amazons;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Formatter;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/** A server of games of Amazons over TCP.  Each connection is a Session
+ *  of a SessionHost, to which the client sends commands, one per line,
+ *  in the language of Controller (moves, "new", "auto COLOR", "manual
+ *  COLOR", "dump", "seed N", "quit"), and from which it receives lines
+ *  in the forms written by a TextReporter: "* MOVE" for the engine's
+ *  moves, "* ..." for other notes, "Error: ..." for errors, and the
+ *  board, as a Controller prints it, for "dump".  A
+ *  connection is closed on "quit" or at the end of its input.
+ *
+ *  All connections are served by one thread, with a non-blocking
+ *  Selector.  Engine moves are computed by the host's bounded pool of
+ *  engine threads, which hand them back to the selector thread; while a
+ *  Session awaits its move, its further commands are held, in order,
+ *  and once MAX_HELD are held, no more are read until it has moved.
+ *  When the engine pool is saturated, a request for a move is refused
+ *  with the error "server busy", and the side to move becomes manual
+ *  (so that the client may retry with "auto"); likewise, a move that
+ *  the engine fails to compute gives the error "engine failed".
+ *  @author Sasha Manghise
+ */
+final class Server {
+
+    /** Maximum length of a command line, in bytes; longer lines are
+     *  truncated. */
+    static final int MAX_LINE = 1024;
+
+    /** Number of held command lines beyond which a connection's input
+     *  is not read (though one buffer's worth more may already have
+     *  been). */
+    static final int MAX_HELD = 1024;
+
+    /** Maximum output waiting to be sent to a client, in characters,
+     *  beyond which its connection is closed. */
+    static final int MAX_OUTPUT = 1 << 20;
+
+    /** A server listening on PORT (or on an arbitrary free port if 0)
+     *  whose Sessions are hosted by HOST. */
+    Server(int port, SessionHost host) throws IOException {
+        _host = host;
+        _selector = Selector.open();
+        _listener = ServerSocketChannel.open();
+        _listener.bind(new InetSocketAddress(port), BACKLOG);
+        _listener.configureBlocking(false);
+        _listener.register(_selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /** Return the port on which I listen. */
+    int port() {
+        return ((InetSocketAddress) _listener.socket()
+                .getLocalSocketAddress()).getPort();
+    }
+
+    /** Return the number of connections accepted so far. */
+    long accepted() {
+        return _accepted;
+    }
+
+    /** Serve clients until stopped. */
+    void run() throws IOException {
+        while (!_stopped) {
+            _selector.select();
+            Runnable task;
+            while ((task = _tasks.poll()) != null) {
+                task.run();
+            }
+            for (SelectionKey key : _selector.selectedKeys()) {
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isAcceptable()) {
+                    accept();
+                    continue;
+                }
+                Connection conn = (Connection) key.attachment();
+                try {
+                    if (key.isReadable()) {
+                        conn.read();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        conn.write();
+                    }
+                } catch (IOException excp) {
+                    conn.close();
+                }
+            }
+            _selector.selectedKeys().clear();
+        }
+        for (SelectionKey key : _selector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                ((Connection) key.attachment()).close();
+            }
+        }
+        _listener.close();
+        _selector.close();
+    }
+
+    /** Cause run to close all connections and return. */
+    void stop() {
+        _stopped = true;
+        _selector.wakeup();
+    }
+
+    /** Accept any pending connections. */
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = _listener.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection conn = new Connection(channel);
+            conn._key = channel.register(_selector, SelectionKey.OP_READ,
+                                         conn);
+            _accepted += 1;
+        }
+    }
+
+    /** The state of one client's connection, which also serves as the
+     *  Reporter of its Session.  Except for the engine's callback in
+     *  advance, all its methods are called on the selector thread. */
+    private class Connection implements Reporter {
+
+        /** A connection over CHANNEL. */
+        Connection(SocketChannel channel) {
+            _channel = channel;
+            _session = _host.session(this);
+        }
+
+        /** Read what is available from my client and act on any complete
+         *  lines. */
+        void read() throws IOException {
+            _input.clear();
+            int n = _channel.read(_input);
+            if (n < 0) {
+                _eof = true;
+                interest(false);
+            }
+            for (int k = 0; k < n; k += 1) {
+                char c = (char) (_input.get(k) & 0xff);
+                if (c == '\n') {
+                    _lines.add(_line.toString());
+                    _line.setLength(0);
+                } else if (_line.length() < MAX_LINE) {
+                    _line.append(c);
+                }
+            }
+            advance();
+        }
+
+        /** Execute held commands until my Session needs an engine move
+         *  or quits, or there are no more commands, and send the
+         *  results. */
+        void advance() {
+            while (!_thinking && _session.playing()) {
+                if (_session.needsMove()) {
+                    _thinking = true;
+                    if (!_host.think(_session.position(),
+                                     _session.engine(), this::moved)) {
+                        _thinking = false;
+                        _session.manual();
+                        reportError("server busy");
+                    }
+                } else if (!_lines.isEmpty()) {
+                    try {
+                        _session.execute(_lines.remove());
+                    } catch (IllegalArgumentException excp) {
+                        reportError("%s", excp.getMessage());
+                    }
+                } else {
+                    break;
+                }
+            }
+            if (!_thinking && (_eof || !_session.playing())) {
+                _closing = true;
+            }
+            send();
+        }
+
+        /** Receive MOVE from the engine, or -1 if it failed, on an engine
+         *  thread. */
+        void moved(int move) {
+            _tasks.add(() -> {
+                if (_key.isValid()) {
+                    _thinking = false;
+                    if (move < 0) {
+                        _session.manual();
+                        reportError("engine failed");
+                    } else {
+                        _session.engineMove(move);
+                    }
+                    advance();
+                }
+            });
+            _selector.wakeup();
+        }
+
+        /** Send as much pending output as possible, and close the
+         *  connection if that is all there will be. */
+        void send() {
+            if (_output.length() > MAX_OUTPUT) {
+                close();
+                return;
+            }
+            try {
+                if (!_pending.hasRemaining() && _output.length() > 0) {
+                    _pending = ByteBuffer.wrap(_output.toString()
+                                               .getBytes(StandardCharsets
+                                                         .UTF_8));
+                    _output.setLength(0);
+                }
+                write();
+            } catch (IOException excp) {
+                close();
+            }
+        }
+
+        /** Write pending output until done or the channel is full. */
+        void write() throws IOException {
+            while (true) {
+                _channel.write(_pending);
+                if (_pending.hasRemaining()) {
+                    interest(true);
+                    return;
+                }
+                if (_output.length() == 0) {
+                    break;
+                }
+                _pending = ByteBuffer.wrap(_output.toString()
+                                           .getBytes(StandardCharsets.UTF_8));
+                _output.setLength(0);
+            }
+            if (_closing) {
+                close();
+            } else {
+                interest(false);
+            }
+        }
+
+        /** Select my channel for reading unless my client has closed its
+         *  side or I hold MAX_HELD lines, and for writing iff WRITING. */
+        void interest(boolean writing) {
+            boolean reading = !_eof && _lines.size() < MAX_HELD;
+            _key.interestOps((reading ? SelectionKey.OP_READ : 0)
+                             | (writing ? SelectionKey.OP_WRITE : 0));
+        }
+
+        /** Close my connection and end my Session. */
+        void close() {
+            if (!_key.isValid()) {
+                return;
+            }
+            _key.cancel();
+            _host.ended(_session);
+            try {
+                _channel.close();
+            } catch (IOException excp) {
+                /* Ignore. */
+            }
+        }
+
+        @Override
+        public void reportError(String fmt, Object... args) {
+            _output.append("Error: ");
+            _formatter.format(fmt, args);
+            _output.append('\n');
+        }
+
+        @Override
+        public void reportNote(String fmt, Object... args) {
+            _output.append("* ");
+            _formatter.format(fmt, args);
+            _output.append('\n');
+        }
+
+        @Override
+        public void reportMove(Move move) {
+            _output.append("* ").append(move).append('\n');
+        }
+
+        @Override
+        public void reportText(String text) {
+            _output.append(text);
+        }
+
+        /** My channel. */
+        private final SocketChannel _channel;
+        /** My channel's registration with the selector. */
+        private SelectionKey _key;
+        /** The game being played. */
+        private final Session _session;
+        /** Buffer for input. */
+        private final ByteBuffer _input = ByteBuffer.allocate(INPUT_SIZE);
+        /** The incomplete last line of input. */
+        private final StringBuilder _line = new StringBuilder();
+        /** Complete lines of input not yet executed. */
+        private final Queue<String> _lines = new ArrayDeque<>();
+        /** Output not yet encoded. */
+        private final StringBuilder _output = new StringBuilder();
+        /** Formatter writing to _output. */
+        private final Formatter _formatter = new Formatter(_output);
+        /** Encoded output not yet sent. */
+        private ByteBuffer _pending = ByteBuffer.allocate(0);
+        /** True iff my Session awaits an engine move. */
+        private boolean _thinking;
+        /** True iff my client has closed its side of the connection. */
+        private boolean _eof;
+        /** True iff I am to close once my output is sent. */
+        private boolean _closing;
+    }
+
+    /** Maximum number of connections waiting to be accepted. */
+    private static final int BACKLOG = 1024;
+
+    /** Size of each connection's input buffer, in bytes. */
+    private static final int INPUT_SIZE = 1024;
+
+    /** The host of my Sessions. */
+    private final SessionHost _host;
+    /** Selector for all channels. */
+    private final Selector _selector;
+    /** The listening channel. */
+    private final ServerSocketChannel _listener;
+    /** Tasks handed to the selector thread by engine threads. */
+    private final Queue<Runnable> _tasks = new ConcurrentLinkedQueue<>();
+    /** Number of connections accepted. */
+    private long _accepted;
+    /** True once I have been told to stop. */
+    private volatile boolean _stopped;
+}
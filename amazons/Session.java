@@ -0,0 +1,209 @@
+package amazons;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+import static amazons.Utils.error;
+
+/** One player's series of games of Amazons, played on a Position and
+ *  driven by commands in the language of Controller: moves, "new",
+ *  "auto COLOR", "manual COLOR", "dump", "seed N", and "quit".  Unlike a
+ *  Controller, which plays on the shared Board (whose contents live in
+ *  the shared Squares), a Session keeps its game to itself, so that a
+ *  SessionHost can run any number of Sessions at once.  Moves of
+ *  automated sides are chosen by the host's engines, which are shared
+ *  among Sessions, until "seed N" gives the Session an engine of its
+ *  own, seeded with N, so that its moves thereafter are determined by N
+ *  and the game, as in a Controller.  As in a Controller, too, WHITE is
+ *  initially manual and BLACK automated, and "dump" prints the board
+ *  between lines of "===".
+ *  @author Sasha Manghise
+ */
+final class Session implements Runnable {
+
+    /** A session hosted by HOST reading commands from INPUT and reporting
+     *  to REPORTER.  If INPUT is null, the session has no thread of its
+     *  own (and run may not be called); instead, its owner gives it
+     *  commands with execute and engine moves with engineMove, as
+     *  needsMove requires. */
+    Session(SessionHost host, BufferedReader input, Reporter reporter) {
+        _host = host;
+        _input = input;
+        _reporter = reporter;
+        _auto[1] = true;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (_playing) {
+                if (needsMove()) {
+                    engineMove(_host.think(_position, _engine));
+                    continue;
+                }
+                String line = _input.readLine();
+                if (line == null) {
+                    break;
+                }
+                try {
+                    execute(line);
+                } catch (IllegalArgumentException excp) {
+                    _reporter.reportError("%s", excp.getMessage());
+                }
+            }
+        } catch (IOException excp) {
+            /* The input has failed; end the session. */
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        } finally {
+            _host.ended(this);
+            try {
+                _input.close();
+            } catch (IOException excp) {
+                /* Ignore. */
+            }
+        }
+    }
+
+    /** Return true iff I have not been told to quit. */
+    boolean playing() {
+        return _playing;
+    }
+
+    /** Return true iff the side to move is automated and has a move to
+     *  make, so that I must be given an engine move before any further
+     *  commands. */
+    boolean needsMove() {
+        return _playing && _position.winner() == null
+            && _auto[_position.side()];
+    }
+
+    /** Return the current position, which is not to be modified. */
+    Position position() {
+        return _position;
+    }
+
+    /** Report and make the engine move MOVE, which must be legal. */
+    void engineMove(int move) {
+        _reporter.reportMove(Position.toMove(move));
+        play(move);
+    }
+
+    /** Return the Engine to choose my moves, or null if the host's
+     *  shared engines are to choose them. */
+    Engine engine() {
+        return _engine;
+    }
+
+    /** Make the side to move manual. */
+    void manual() {
+        _auto[_position.side()] = false;
+    }
+
+    /** Return the number of moves made in my games. */
+    long moves() {
+        return _moves;
+    }
+
+    /** Execute the command CMND, throwing an IllegalArgumentException if
+     *  it is erroneous. */
+    void execute(String cmnd) {
+        int comment = cmnd.indexOf('#');
+        if (comment >= 0) {
+            cmnd = cmnd.substring(0, comment);
+        }
+        cmnd = cmnd.trim().toLowerCase();
+        if (cmnd.isEmpty()) {
+            return;
+        }
+        int move = Move.pack(cmnd);
+        if (move >= 0) {
+            if (_position.winner() != null || !_position.isLegal(move)) {
+                throw error("Invalid move!");
+            }
+            play(move);
+            return;
+        }
+        String[] words = cmnd.split("\\s+");
+        switch (words[0]) {
+        case "new":
+            expectArguments(words, 0);
+            _position.init();
+            break;
+        case "auto":
+        case "manual":
+            expectArguments(words, 1);
+            _auto[side(words[1])] = words[0].equals("auto");
+            break;
+        case "dump":
+            expectArguments(words, 0);
+            _reporter.reportText(String.format("===%n%s===%n", _position));
+            break;
+        case "seed":
+            expectArguments(words, 1);
+            if (!words[1].matches("\\d+")) {
+                throw error("Bad command: %s", cmnd);
+            }
+            try {
+                _engine = _host.engine(Long.parseLong(words[1]));
+            } catch (NumberFormatException excp) {
+                throw error("number too large");
+            }
+            break;
+        case "quit":
+            expectArguments(words, 0);
+            _playing = false;
+            break;
+        default:
+            throw error("Bad command: %s", cmnd);
+        }
+    }
+
+    /** Make MOVE, which must be legal, and report the end of the game if
+     *  it ends it. */
+    private void play(int move) {
+        _position.makeMove(move);
+        _moves += 1;
+        Piece winner = _position.winner();
+        if (winner != null) {
+            _host.gameFinished();
+            _reporter.reportNote("%s wins.", winner.toName());
+        }
+    }
+
+    /** Check that WORDS has N words after the first. */
+    private static void expectArguments(String[] words, int n) {
+        if (words.length != n + 1) {
+            throw error("Bad command: %s", String.join(" ", words));
+        }
+    }
+
+    /** Return the side (0 or 1) named by NAME. */
+    private static int side(String name) {
+        switch (name) {
+        case "white":
+            return 0;
+        case "black":
+            return 1;
+        default:
+            throw error("Bad color: %s", name);
+        }
+    }
+
+    /** My host. */
+    private final SessionHost _host;
+    /** Source of my commands. */
+    private final BufferedReader _input;
+    /** Destination of my messages. */
+    private final Reporter _reporter;
+    /** The current game. */
+    private final Position _position = new Position();
+    /** _auto[side] is true iff side is played by an engine. */
+    private final boolean[] _auto = new boolean[2];
+    /** My own Engine, given by "seed", or null if I use the host's. */
+    private Engine _engine;
+    /** False once I have been told to quit. */
+    private boolean _playing = true;
+    /** Number of moves made. */
+    private long _moves;
+}
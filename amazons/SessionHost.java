@@ -0,0 +1,229 @@
+package amazons;
+
+import java.io.BufferedReader;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.function.LongFunction;
+
+/** A host for any number of concurrent Sessions, each an independent
+ *  series of games with its own input and Reporter.  Each Session runs
+ *  on its own thread, which spends most of its life waiting for input.
+ *  Where the Java runtime provides virtual threads, those are used, so
+ *  that an idle Session costs little more than its Position; otherwise,
+ *  Sessions get daemon platform threads with small stacks.  Engine moves
+ *  for all Sessions are computed on one fixed pool of engine threads,
+ *  each with its own Engine, and at most a fixed number of requests for
+ *  moves may be pending at once, so that the load of searching is
+ *  bounded however many Sessions there are.  (A Session that has been
+ *  given a seed has an Engine of its own, which is run on the same
+ *  pool.)  Sessions may also be driven by an event loop of their
+ *  owner's (see Server), in which case their moves are requested
+ *  asynchronously.
+ *  @author Sasha Manghise
+ */
+final class SessionHost {
+
+    /** Stack size of platform Session threads, in bytes. */
+    static final long STACK_SIZE = 1 << 18;
+
+    /** Default maximum number of pending requests for moves per engine
+     *  thread. */
+    static final int PENDING_PER_THREAD = 64;
+
+    /** A host whose engines are described by ENGINESPEC (as for
+     *  Tournament.engine) and run on ENGINETHREADS threads, with at most
+     *  PENDING_PER_THREAD requests per thread pending. */
+    SessionHost(String engineSpec, int engineThreads) {
+        this(engineSpec, engineThreads, engineThreads * PENDING_PER_THREAD);
+    }
+
+    /** A host whose engines are described by ENGINESPEC (as for
+     *  Tournament.engine) and run on ENGINETHREADS threads, with at most
+     *  MAXPENDING requests for moves pending at once. */
+    SessionHost(String engineSpec, int engineThreads, int maxPending) {
+        _pending = new Semaphore(maxPending);
+        _factory = Tournament.engine(engineSpec);
+        AtomicLong seeds = new AtomicLong();
+        _engines =
+            ThreadLocal.withInitial(() ->
+                                    _factory.apply(seeds.incrementAndGet()));
+        _pool = Executors.newFixedThreadPool(engineThreads, r -> {
+            Thread thread = new Thread(r, "engine");
+            thread.setDaemon(true);
+            return thread;
+        });
+        _sessionThreads = virtualThreadFactory();
+        _virtual = _sessionThreads != null;
+        if (!_virtual) {
+            _sessionThreads = r -> {
+                Thread thread = new Thread(null, r, "session", STACK_SIZE);
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+
+    /** Start and return the thread of a new Session reading commands
+     *  from INPUT and reporting to REPORTER. */
+    Thread start(BufferedReader input, Reporter reporter) {
+        Thread thread =
+            _sessionThreads.newThread(new Session(this, input, reporter));
+        _active.incrementAndGet();
+        thread.start();
+        return thread;
+    }
+
+    /** Return true iff Sessions run on virtual threads. */
+    boolean virtual() {
+        return _virtual;
+    }
+
+    /** Return the number of Sessions that have not ended. */
+    int active() {
+        return _active.get();
+    }
+
+    /** Return the number of games finished in all Sessions. */
+    long finished() {
+        return _finished.get();
+    }
+
+    /** Return the number of moves made in all ended Sessions. */
+    long moves() {
+        return _moves.get();
+    }
+
+    /** Stop the engine threads.  Sessions still waiting for engine moves
+     *  are interrupted. */
+    void shutdown() {
+        _pool.shutdownNow();
+    }
+
+    /** Return a new Engine of the kind my engine threads use, whose
+     *  moves are determined by SEED, for one Session's own use. */
+    Engine engine(long seed) {
+        return _factory.apply(seed);
+    }
+
+    /** Return a packed move for the side to move in POSITION, which must
+     *  have a legal move, computed on an engine thread once there is room
+     *  for the request, by ENGINE, or if it is null, by the engine
+     *  thread's own Engine.  POSITION is unchanged. */
+    int think(Position position, Engine engine)
+        throws InterruptedException {
+        Position copy = new Position(position);
+        _pending.acquire();
+        Future<Integer> move;
+        try {
+            move = _pool.submit(() -> engine(engine).move(copy));
+        } catch (RuntimeException excp) {
+            _pending.release();
+            throw excp;
+        }
+        try {
+            return move.get();
+        } catch (ExecutionException excp) {
+            throw new IllegalStateException("engine failed: "
+                                            + excp.getCause());
+        } catch (InterruptedException excp) {
+            move.cancel(true);
+            throw excp;
+        } finally {
+            _pending.release();
+        }
+    }
+
+    /** Compute a packed move for the side to move in POSITION, which
+     *  must have a legal move, on an engine thread, by ENGINE, or if it
+     *  is null, by the engine thread's own Engine, and pass it to DONE on
+     *  that thread, or pass -1 to DONE if the engine fails.  Return
+     *  false, doing nothing, if too many requests are pending.  POSITION
+     *  is unchanged. */
+    boolean think(Position position, Engine engine, IntConsumer done) {
+        if (!_pending.tryAcquire()) {
+            return false;
+        }
+        Position copy = new Position(position);
+        try {
+            _pool.execute(() -> {
+                int move;
+                try {
+                    move = engine(engine).move(copy);
+                } catch (RuntimeException excp) {
+                    move = -1;
+                } finally {
+                    _pending.release();
+                }
+                done.accept(move);
+            });
+        } catch (RuntimeException excp) {
+            _pending.release();
+            return false;
+        }
+        return true;
+    }
+
+    /** Return ENGINE, or if it is null, the current engine thread's
+     *  Engine. */
+    private Engine engine(Engine engine) {
+        return engine != null ? engine : _engines.get();
+    }
+
+    /** Record the end of a game in some Session. */
+    void gameFinished() {
+        _finished.incrementAndGet();
+    }
+
+    /** Return a new Session, with no thread of its own, that reports to
+     *  REPORTER. */
+    Session session(Reporter reporter) {
+        _active.incrementAndGet();
+        return new Session(this, null, reporter);
+    }
+
+    /** Record the end of SESSION. */
+    void ended(Session session) {
+        _moves.addAndGet(session.moves());
+        _active.decrementAndGet();
+    }
+
+    /** Return a factory for virtual threads, or null if this runtime
+     *  does not provide them.  (They are found reflectively, so that the
+     *  program may still be compiled and run on older runtimes.) */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory)
+                Class.forName("java.lang.Thread$Builder")
+                .getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException excp) {
+            return null;
+        }
+    }
+
+    /** The pool of engine threads. */
+    private final ExecutorService _pool;
+    /** Permits for pending requests for moves. */
+    private final Semaphore _pending;
+    /** Source of new Engines, given their seeds. */
+    private final LongFunction<Engine> _factory;
+    /** The Engine of each engine thread. */
+    private final ThreadLocal<Engine> _engines;
+    /** Source of Session threads. */
+    private ThreadFactory _sessionThreads;
+    /** True iff _sessionThreads makes virtual threads. */
+    private final boolean _virtual;
+    /** Number of Sessions not yet ended. */
+    private final AtomicInteger _active = new AtomicInteger();
+    /** Number of games finished. */
+    private final AtomicLong _finished = new AtomicLong();
+    /** Number of moves made in ended Sessions. */
+    private final AtomicLong _moves = new AtomicLong();
+}
@@ -146,10 +146,38 @@ final class Square {
      *  standard text format for a square (e.g. a4). POSN must be a
      *  valid square designation. */
     static Square sq(String posn) {
-        assert posn.matches(SQ);
-        String col = Character.toString(posn.charAt(0));
-        String row = posn.substring(1);
-        return sq(col, row);
+        int index = parse(posn, 0);
+        if (index < 0 || length(index) != posn.length()) {
+            throw error("bad square designation: %s", posn);
+        }
+        return SQUARES[index];
+    }
+
+    /** Return the index of the square whose designation (as matched by
+     *  SQ) begins at position START of TEXT, or -1 if none does.  The
+     *  designation is as long as possible, so that "a10" denotes a10,
+     *  not a1, and its length is length() of the result.  Unlike a
+     *  Matcher, this may be used by any number of threads at once. */
+    static int parse(CharSequence text, int start) {
+        int n = text.length();
+        if (start + 2 > n) {
+            return -1;
+        }
+        int col = text.charAt(start) - 'a';
+        char digit = text.charAt(start + 1);
+        if (col < 0 || col >= Board.SIZE || digit < '1' || digit > '9') {
+            return -1;
+        }
+        if (digit == '1' && start + 2 < n && text.charAt(start + 2) == '0') {
+            return (Board.SIZE - 1) * Board.SIZE + col;
+        }
+        return (digit - '1') * Board.SIZE + col;
+    }
+
+    /** Return the length of the designation of the square with index
+     *  INDEX. */
+    static int length(int index) {
+        return index >= (Board.SIZE - 1) * Board.SIZE ? 3 : 2;
     }
 
     /** Return an iterator over all Squares. */
@@ -0,0 +1,75 @@
+package amazons;
+
+/** The eight symmetries of the board (its rotations and reflections),
+ *  as permutations of square indices.  Symmetry #T transposes the board
+ *  if bit 2 of T is set, then reflects it left to right if bit 0 is set
+ *  and top to bottom if bit 1 is set.  Symmetry #0 is the identity.
+ *  Applying any symmetry to a position (leaving the colors of its pieces
+ *  and the side to move alone) gives a position of equal value, so
+ *  tables indexed by position may store just one of each such set (see
+ *  Position.canonicalHash).
+ *  @author Sasha Manghise
+ */
+final class Symmetry {
+
+    /** Number of symmetries. */
+    static final int COUNT = 8;
+
+    /** Not instantiable. */
+    private Symmetry() {
+    }
+
+    /** Return the index of the square to which symmetry #T takes the
+     *  square with index S. */
+    static int square(int t, int s) {
+        return SQUARE[t][s];
+    }
+
+    /** Return the packed move to which symmetry #T takes packed MOVE. */
+    static int move(int t, int move) {
+        int[] perm = SQUARE[t];
+        return Position.pack(perm[Position.from(move)],
+                             perm[Position.to(move)],
+                             perm[Position.spear(move)]);
+    }
+
+    /** Return the number of the symmetry that undoes symmetry #T. */
+    static int inverse(int t) {
+        return INVERSE[t];
+    }
+
+    /** SQUARE[t][s] is the image of square index S under symmetry #T. */
+    private static final int[][] SQUARE = new int[COUNT][Position.SQUARES];
+
+    /** INVERSE[t] is the inverse of symmetry #T. */
+    private static final int[] INVERSE = new int[COUNT];
+
+    static {
+        int last = Board.SIZE - 1;
+        for (int t = 0; t < COUNT; t += 1) {
+            for (int s = 0; s < Position.SQUARES; s += 1) {
+                int col = s % Board.SIZE, row = s / Board.SIZE;
+                if ((t & 4) != 0) {
+                    int tmp = col;
+                    col = row;
+                    row = tmp;
+                }
+                if ((t & 1) != 0) {
+                    col = last - col;
+                }
+                if ((t & 2) != 0) {
+                    row = last - row;
+                }
+                SQUARE[t][s] = row * Board.SIZE + col;
+            }
+        }
+        for (int t = 0; t < COUNT; t += 1) {
+            for (int u = 0; u < COUNT; u += 1) {
+                if (SQUARE[u][SQUARE[t][1]] == 1
+                    && SQUARE[u][SQUARE[t][Board.SIZE]] == Board.SIZE) {
+                    INVERSE[t] = u;
+                }
+            }
+        }
+    }
+}
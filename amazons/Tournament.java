@@ -0,0 +1,321 @@
+package amazons;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongFunction;
+
+import static amazons.Utils.error;
+
+/** A match of many games between two engine configurations, played in
+ *  parallel, each game on its own Position with its own Engines.  Games
+ *  are played in pairs from the same random opening, with colors
+ *  reversed, so that neither side benefits from a lucky opening.  The
+ *  result is reported as a score, an Elo difference (estimated from a
+ *  score kept at least half a game from 0 and 1, so that it is finite
+ *  even for a shutout) with the 95% confidence interval given by the
+ *  Wilson score interval (open-ended after a shutout), and optionally
+ *  the log-likelihood ratio of a sequential probability ratio test
+ *  (SPRT) between two hypothetical Elo differences, which stops the
+ *  match as soon as it is decided.
+ *
+ *  An engine configuration is given by a string: "random" (moves chosen
+ *  at random, as in a Playout), or "mcts[:ITERATIONS[:MILLIS]]" (Monte
+ *  Carlo tree search limited to ITERATIONS iterations and MILLIS
+ *  milliseconds per move).
+ *  @author Sasha Manghise
+ */
+final class Tournament {
+
+    /** Number of random moves in each opening. */
+    static final int OPENING_PLIES = 2;
+
+    /** Default number of MCTS iterations per move. */
+    static final long DEFAULT_ITERATIONS = 10000;
+
+    /** A match of GAMES games (rounded up to an even number) between the
+     *  engines described by FIRST and SECOND, playing THREADS games at a
+     *  time, with openings and engine seeds determined by SEED. */
+    Tournament(String first, String second, int games, int threads,
+               long seed) {
+        _first = engine(first);
+        _second = engine(second);
+        _names = new String[] { first, second };
+        _games = games + games % 2;
+        _threads = threads;
+        _seed = seed;
+    }
+
+    /** Stop the match once the log-likelihood ratio of the hypothesis
+     *  that the first engine is ELO1 Elo stronger than the second against
+     *  the hypothesis that it is ELO0 stronger leaves the bounds for
+     *  error rates ALPHA and BETA. */
+    void setSprt(double elo0, double elo1, double alpha, double beta) {
+        _sprt = true;
+        _elo0 = elo0;
+        _elo1 = elo1;
+        _lower = Math.log(beta / (1 - alpha));
+        _upper = Math.log((1 - beta) / alpha);
+    }
+
+    /** Play the match, reporting progress and results on the standard
+     *  output. */
+    void run() {
+        ExecutorService pool = Executors.newFixedThreadPool(_threads);
+        CompletionService<Boolean> results =
+            new ExecutorCompletionService<>(pool);
+        List<Future<Boolean>> games = new ArrayList<>();
+        for (int g = 0; g < _games; g += 1) {
+            final int game = g;
+            games.add(results.submit(() -> play(game)));
+        }
+        long start = System.nanoTime();
+        try {
+            for (int played = 1; played <= _games; played += 1) {
+                if (results.take().get()) {
+                    _wins += 1;
+                } else {
+                    _losses += 1;
+                }
+                if (played % REPORT_INTERVAL == 0 || played == _games) {
+                    report(played, System.nanoTime() - start);
+                }
+                if (_sprt && (llr() <= _lower || llr() >= _upper)) {
+                    report(played, System.nanoTime() - start);
+                    System.out.printf("SPRT: %s%n", llr() >= _upper
+                                      ? "H1 accepted" : "H0 accepted");
+                    break;
+                }
+            }
+        } catch (InterruptedException | ExecutionException excp) {
+            throw new IllegalStateException("tournament failed: " + excp);
+        } finally {
+            for (Future<Boolean> game : games) {
+                game.cancel(true);
+            }
+            pool.shutdownNow();
+        }
+    }
+
+    /** Return the number of games won by the first engine so far. */
+    int wins() {
+        return _wins;
+    }
+
+    /** Return the number of games lost by the first engine so far. */
+    int losses() {
+        return _losses;
+    }
+
+    /** Return the Elo difference corresponding to a fraction SCORE of the
+     *  points (infinite if SCORE is 0 or 1). */
+    static double elo(double score) {
+        return -400 * Math.log10(1 / score - 1);
+    }
+
+    /** Return SCORE, a fraction of the points of PLAYED games, moved if
+     *  need be to lie at least half a game from 0 and 1, so that its Elo
+     *  difference is finite. */
+    static double clampScore(double score, int played) {
+        double half = 0.5 / played;
+        return Math.max(half, Math.min(1 - half, score));
+    }
+
+    /** Return the 95% confidence interval of the Elo difference of a
+     *  player that has won WINS of PLAYED games, as { LOW, HIGH }, from
+     *  the Wilson score interval of its score.  LOW is negative infinity
+     *  if WINS is 0, and HIGH is positive infinity if WINS is PLAYED. */
+    static double[] eloInterval(int wins, int played) {
+        double score = (double) wins / played;
+        double z2 = Z95 * Z95 / played;
+        double center = (score + z2 / 2) / (1 + z2);
+        double half = Z95 * Math.sqrt(score * (1 - score) / played
+                                      + z2 / (4 * played)) / (1 + z2);
+        return new double[] {
+            wins == 0 ? Double.NEGATIVE_INFINITY : elo(center - half),
+            wins == played ? Double.POSITIVE_INFINITY : elo(center + half)
+        };
+    }
+
+    /** Return ELO, an Elo difference, formatted for reports: signed,
+     *  with one decimal, or "-inf" or "+inf" if it is infinite. */
+    static String formatElo(double elo) {
+        if (Double.isInfinite(elo)) {
+            return elo < 0 ? "-inf" : "+inf";
+        }
+        return String.format("%+.1f", elo);
+    }
+
+    /** Return the log-likelihood ratio of the SPRT hypotheses given the
+     *  games so far. */
+    double llr() {
+        double p0 = expectedScore(_elo0), p1 = expectedScore(_elo1);
+        return _wins * Math.log(p1 / p0)
+            + _losses * Math.log((1 - p1) / (1 - p0));
+    }
+
+    /** Play game #GAME and return true iff the first engine wins it. */
+    private boolean play(int game) {
+        long seed = Position.mix(_seed + game / 2);
+        Position pos = opening(seed);
+        boolean firstIsWhite = game % 2 == 0;
+        Engine[] engines = new Engine[2];
+        engines[firstIsWhite ? 0 : 1] = _first.apply(seed);
+        engines[firstIsWhite ? 1 : 0] = _second.apply(~seed);
+        while (pos.winner() == null) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new IllegalStateException("cancelled");
+            }
+            pos.makeMove(engines[pos.side()].move(pos));
+        }
+        return (pos.winner() == Piece.WHITE) == firstIsWhite;
+    }
+
+    /** Return a new position reached by OPENING_PLIES random moves
+     *  determined by SEED from the initial position. */
+    static Position opening(long seed) {
+        Position pos = new Position();
+        Playout random = new Playout(seed);
+        for (int k = 0; k < OPENING_PLIES; k += 1) {
+            pos.makeMove(random.randomMove(pos));
+        }
+        return pos;
+    }
+
+    /** Print the results after PLAYED games, which took NANOS
+     *  nanoseconds. */
+    private void report(int played, long nanos) {
+        double score = (double) _wins / played;
+        double[] interval = eloInterval(_wins, played);
+        System.out.printf("%d games (%.1f s): %s %d - %d %s, score %.3f,"
+                          + " Elo %s [%s, %s]",
+                          played, nanos * 1e-9, _names[0], _wins, _losses,
+                          _names[1], score,
+                          formatElo(elo(clampScore(score, played))),
+                          formatElo(interval[0]), formatElo(interval[1]));
+        if (_sprt) {
+            System.out.printf(", LLR %.2f [%.2f, %.2f]", llr(), _lower,
+                              _upper);
+        }
+        System.out.println();
+    }
+
+    /** Return the expected score of a player ELO Elo stronger than its
+     *  opponent. */
+    private static double expectedScore(double elo) {
+        return 1 / (1 + Math.pow(10, -elo / 400));
+    }
+
+    /** Return a function that creates the engine described by SPEC from a
+     *  seed. */
+    static LongFunction<Engine> engine(String spec) {
+        String[] parts = spec.split(":");
+        try {
+            switch (parts[0]) {
+            case "random":
+                if (parts.length == 1) {
+                    return RandomEngine::new;
+                }
+                break;
+            case "mcts":
+                if (parts.length <= 3) {
+                    long iterations = parts.length > 1
+                        ? Long.parseLong(parts[1]) : DEFAULT_ITERATIONS;
+                    long millis = parts.length > 2
+                        ? Long.parseLong(parts[2]) : Long.MAX_VALUE;
+                    return seed -> new MonteCarloEngine(iterations, millis,
+                                                        seed);
+                }
+                break;
+            default:
+                break;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through. */
+        }
+        throw error("bad engine description: %s", spec);
+    }
+
+    /** An engine that plays random moves. */
+    private static class RandomEngine implements Engine {
+
+        /** An engine whose moves are determined by SEED. */
+        RandomEngine(long seed) {
+            _random = new Playout(seed);
+        }
+
+        @Override
+        public int move(Position position) {
+            return _random.randomMove(position);
+        }
+
+        /** Source of moves. */
+        private final Playout _random;
+    }
+
+    /** An engine that plays by single-threaded Monte Carlo tree
+     *  search. */
+    private static class MonteCarloEngine implements Engine {
+
+        /** An engine that searches ITERATIONS iterations, for at most
+         *  MILLIS milliseconds, per move, with random choices determined
+         *  by SEED. */
+        MonteCarloEngine(long iterations, long millis, long seed) {
+            _search = new MonteCarloSearch(TREE_CAPACITY, seed);
+            _fallback = new Playout(seed);
+            _iterations = iterations;
+            _millis = millis;
+        }
+
+        @Override
+        public int move(Position position) {
+            _search.setRoot(position);
+            _search.search(_iterations, _millis);
+            int move = _search.bestMove();
+            return move >= 0 ? move : _fallback.randomMove(position);
+        }
+
+        /** My search. */
+        private final MonteCarloSearch _search;
+        /** Source of moves when the search has not had time to expand
+         *  the root. */
+        private final Playout _fallback;
+        /** Iterations per move. */
+        private final long _iterations;
+        /** Time limit per move, in milliseconds. */
+        private final long _millis;
+    }
+
+    /** Number of nodes in the tree of each MCTS engine. */
+    private static final int TREE_CAPACITY = 1 << 16;
+
+    /** Number of games between progress reports. */
+    private static final int REPORT_INTERVAL = 100;
+
+    /** The normal quantile of a two-sided 95% confidence interval. */
+    private static final double Z95 = 1.96;
+
+    /** Factories for the two engines. */
+    private final LongFunction<Engine> _first, _second;
+    /** Descriptions of the two engines. */
+    private final String[] _names;
+    /** Number of games to play. */
+    private final int _games;
+    /** Number of games to play at once. */
+    private final int _threads;
+    /** Seed determining the openings and engines. */
+    private final long _seed;
+    /** Games won and lost by the first engine. */
+    private int _wins, _losses;
+    /** True iff the SPRT is to be applied. */
+    private boolean _sprt;
+    /** The SPRT hypotheses, as Elo differences. */
+    private double _elo0, _elo1;
+    /** Bounds on the log-likelihood ratio for the SPRT. */
+    private double _lower, _upper;
+}
@@ -0,0 +1,219 @@
+package amazons;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** A fitter of the weights of an Evaluation to the outcomes of recorded
+ *  games (in the format written by DataGen).  It minimizes the logistic
+ *  loss of the prediction that the side to move wins with probability
+ *  1 / (1 + exp(-W.F)), where W are the weights and F the features of
+ *  the position, by a series of passes over the data, each of which
+ *  computes the gradient and Hessian of the loss and takes a Newton
+ *  step.  The loss is convex and there are few weights, so a handful of
+ *  passes suffices.
+ *
+ *  The data files are memory-mapped, not read, so that they need not
+ *  fit in memory, and each pass divides them into slices that are
+ *  processed in parallel, each with its own Position and Evaluation.
+ *  @author Sasha Manghise
+ */
+final class Tuner {
+
+    /** Default number of passes over the data. */
+    static final int DEFAULT_PASSES = 8;
+
+    /** A tuner over the records in FILES, using THREADS threads. */
+    Tuner(List<Path> files, int threads) throws IOException {
+        _threads = threads;
+        for (Path file : files) {
+            try (FileChannel in =
+                 FileChannel.open(file, StandardOpenOption.READ)) {
+                long records = in.size() / DataGen.RECORD_SIZE;
+                for (long r = 0; r < records; r += SEGMENT_RECORDS) {
+                    long n = Math.min(SEGMENT_RECORDS, records - r);
+                    _segments.add(in.map(FileChannel.MapMode.READ_ONLY,
+                                         r * DataGen.RECORD_SIZE,
+                                         n * DataGen.RECORD_SIZE));
+                }
+                _records += records;
+            }
+        }
+    }
+
+    /** Return the total number of records. */
+    long records() {
+        return _records;
+    }
+
+    /** Return weights fitted by PASSES passes over the data, starting
+     *  from WEIGHTS, reporting the loss after each pass on the standard
+     *  output. */
+    double[] tune(double[] weights, int passes) {
+        double[] result = weights.clone();
+        ExecutorService pool = Executors.newFixedThreadPool(_threads);
+        try {
+            for (int p = 1; p <= passes; p += 1) {
+                double[] sums = pass(pool, result);
+                System.out.printf("pass %d: loss %.6f%n", p,
+                                  sums[LOSS] / _records);
+                double[] step = solve(sums);
+                if (step == null) {
+                    break;
+                }
+                for (int i = 0; i < Evaluation.FEATURES; i += 1) {
+                    result[i] -= step[i];
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return result;
+    }
+
+    /** Return the mean logistic loss of WEIGHTS over the data. */
+    double loss(double[] weights) {
+        ExecutorService pool = Executors.newFixedThreadPool(_threads);
+        try {
+            return pass(pool, weights)[LOSS] / _records;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Return the sums over all records of the loss, its gradient, and
+     *  its Hessian at WEIGHTS, computed in parallel on
+     *  POOL, in an array indexed as for sums. */
+    private double[] pass(ExecutorService pool, double[] weights) {
+        List<Future<double[]>> parts = new ArrayList<>();
+        for (MappedByteBuffer segment : _segments) {
+            int records = segment.capacity() / DataGen.RECORD_SIZE;
+            int slice = Math.max(1, records / (_threads * SLICES_PER_THREAD));
+            for (int r = 0; r < records; r += slice) {
+                int start = r, end = Math.min(records, r + slice);
+                parts.add(pool.submit(() -> sums(segment, start, end,
+                                                 weights)));
+            }
+        }
+        double[] total = new double[SUMS];
+        try {
+            for (Future<double[]> part : parts) {
+                double[] sums = part.get();
+                for (int i = 0; i < SUMS; i += 1) {
+                    total[i] += sums[i];
+                }
+            }
+        } catch (InterruptedException | ExecutionException excp) {
+            throw new IllegalStateException("tuning failed: " + excp);
+        }
+        return total;
+    }
+
+    /** Return the sums of the loss, gradient, and Hessian at WEIGHTS
+     *  over records #START through #END-1 of SEGMENT, in an array whose
+     *  element LOSS is the loss, GRADIENT + i is the derivative by
+     *  weight i, and HESSIAN + i * FEATURES + j the second derivative by
+     *  weights i and j. */
+    private static double[] sums(ByteBuffer segment, int start, int end,
+                                 double[] weights) {
+        double[] result = new double[SUMS];
+        double[] features = new double[Evaluation.FEATURES];
+        byte[] cells = new byte[Position.SQUARES];
+        Position pos = new Position();
+        Evaluation eval = new Evaluation(weights);
+        for (int r = start; r < end; r += 1) {
+            int record = r * DataGen.RECORD_SIZE;
+            DataGen.decode(segment, record, cells, pos);
+            eval.features(pos, features);
+            double z = Evaluation.dot(weights, features);
+            double p = 1 / (1 + Math.exp(-z));
+            double y = segment.get(record + DataGen.RESULT);
+            double error = p - y;
+            double curvature = p * (1 - p);
+            result[LOSS] += Math.max(0, z) - z * y
+                + Math.log1p(Math.exp(-Math.abs(z)));
+            for (int i = 0; i < Evaluation.FEATURES; i += 1) {
+                result[GRADIENT + i] += error * features[i];
+                double f = curvature * features[i];
+                for (int j = 0; j < Evaluation.FEATURES; j += 1) {
+                    result[HESSIAN + i * Evaluation.FEATURES + j] +=
+                        f * features[j];
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the Newton step for SUMS (as returned by pass): the
+     *  solution D of H D = G, where H is the Hessian and G the gradient.
+     *  Returns null if H is singular. */
+    private static double[] solve(double[] sums) {
+        final int n = Evaluation.FEATURES;
+        double[][] a = new double[n][n + 1];
+        for (int i = 0; i < n; i += 1) {
+            System.arraycopy(sums, HESSIAN + i * n, a[i], 0, n);
+            a[i][n] = sums[GRADIENT + i];
+        }
+        for (int c = 0; c < n; c += 1) {
+            int pivot = c;
+            for (int r = c + 1; r < n; r += 1) {
+                if (Math.abs(a[r][c]) > Math.abs(a[pivot][c])) {
+                    pivot = r;
+                }
+            }
+            if (Math.abs(a[pivot][c]) < SINGULAR) {
+                return null;
+            }
+            double[] row = a[pivot];
+            a[pivot] = a[c];
+            a[c] = row;
+            for (int r = 0; r < n; r += 1) {
+                if (r != c) {
+                    double factor = a[r][c] / row[c];
+                    for (int k = c; k <= n; k += 1) {
+                        a[r][k] -= factor * row[k];
+                    }
+                }
+            }
+        }
+        double[] result = new double[n];
+        for (int i = 0; i < n; i += 1) {
+            result[i] = a[i][n] / a[i][i];
+        }
+        return result;
+    }
+
+    /** Indices in the arrays returned by sums. */
+    private static final int LOSS = 0, GRADIENT = 1,
+        HESSIAN = GRADIENT + Evaluation.FEATURES,
+        SUMS = HESSIAN + Evaluation.FEATURES * Evaluation.FEATURES;
+
+    /** Magnitude below which a pivot is taken to indicate a singular
+     *  Hessian. */
+    private static final double SINGULAR = 1e-9;
+
+    /** Maximum records per mapped segment (keeping segments under the
+     *  2 GB limit of a mapped buffer). */
+    private static final long SEGMENT_RECORDS =
+        (1L << 30) / DataGen.RECORD_SIZE;
+
+    /** Number of slices into which each segment is divided per
+     *  thread, so that threads finishing early find more work. */
+    private static final int SLICES_PER_THREAD = 4;
+
+    /** Number of threads. */
+    private final int _threads;
+    /** The mapped data. */
+    private final List<MappedByteBuffer> _segments = new ArrayList<>();
+    /** Total number of records. */
+    private long _records;
+}
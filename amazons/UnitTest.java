@@ -7,6 +7,32 @@ import static amazons.Piece.WHITE;
 import static org.junit.Assert.*;
 import ucb.junit.textui;
 import java.util.Iterator;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
 
 /** The suite of all JUnit tests for the enigma package.
  *  @author
@@ -209,5 +235,803 @@ public class UnitTest {
                 Square.sq("g8"), Square.sq("g5")));
     }
 
-}
+    /** Tests that Positions generate the same moves as Boards, and that
+     *  undoing a move restores the hash key. */
+    @Test
+    public void testPositionMoves() {
+        Position p = new Position();
+        int[] moves = new int[Position.MAX_MOVES];
+        assertEquals(2176, p.legalMoves(moves));
+        long key = p.hash();
+        p.makeMove(Position.pack(Move.mv("d1-d5(e6)")));
+        assertEquals(Piece.BLACK, p.turn());
+        assertEquals(Position.SPEAR, p.get(Square.sq("e6").index()));
+        p.undo();
+        assertEquals(key, p.hash());
+        assertEquals(Position.EMPTY, p.get(Square.sq("e6").index()));
+    }
+
+    /** Tests perft against known values from the initial position, and
+     *  its bulk count of the last ply against generated moves. */
+    @Test
+    public void testPerft() {
+        Position p = new Position();
+        assertEquals(2176, Perft.perft(p, 1));
+        assertEquals(4307152,
+                     Perft.perft(p, 2, ForkJoinPool.commonPool()));
+        int[] moves = new int[Position.MAX_MOVES];
+        for (String name : Corpus.NAMES) {
+            p = Corpus.position(name);
+            assertEquals(p.legalMoves(moves), Perft.countMoves(p));
+        }
+    }
+
+    /** Tests the Elo arithmetic of tournaments, and that a short match
+     *  plays all its games. */
+    @Test
+    public void testTournament() {
+        assertEquals(0.0, Tournament.elo(0.5), 1e-9);
+        assertEquals(190.85, Tournament.elo(0.75), 0.01);
+        assertEquals(0.125, Tournament.clampScore(0, 4), 1e-9);
+        assertEquals(0.875, Tournament.clampScore(1, 4), 1e-9);
+        assertEquals(0.5, Tournament.clampScore(0.5, 4), 1e-9);
+        double[] shutout = Tournament.eloInterval(0, 4);
+        assertEquals(Double.NEGATIVE_INFINITY, shutout[0], 0);
+        assertEquals(Tournament.elo(0.4898), shutout[1], 0.1);
+        double[] sweep = Tournament.eloInterval(4, 4);
+        assertEquals(-shutout[1], sweep[0], 1e-9);
+        assertEquals(Double.POSITIVE_INFINITY, sweep[1], 0);
+        double[] even = Tournament.eloInterval(50, 100);
+        assertEquals(-even[0], even[1], 1e-9);
+        assertEquals(67.7, even[1], 0.1);
+        assertEquals("-inf", Tournament.formatElo(shutout[0]));
+        assertEquals("+inf", Tournament.formatElo(sweep[1]));
+        assertEquals("-7.0", Tournament.formatElo(shutout[1]));
+        Tournament match = new Tournament("random", "mcts:50", 3, 2, 1);
+        match.run();
+        assertEquals(4, match.wins() + match.losses());
+    }
 
+    /** Tests that random playout moves are legal in Corpus positions,
+     *  and that playouts continue until one side has won. */
+    @Test
+    public void testPlayout() {
+        Playout random = new Playout(17);
+        for (String name : Corpus.NAMES) {
+            Position pos = Corpus.position(name);
+            for (int i = 0; i < 1000; i += 1) {
+                assertTrue(pos.isLegal(random.randomMove(pos)));
+            }
+            String before = pos.toString();
+            random.run(pos);
+            assertEquals(before, pos.toString());
+            int winner = random.play(pos);
+            assertNotNull(pos.winner());
+            assertEquals(winner == 0 ? WHITE : BLACK, pos.winner());
+        }
+    }
+
+    /** Tests that a Monte Carlo search finds the one move that wins at
+     *  once in a late position (reached by random moves from a Corpus
+     *  position), and that moving its root to a position in its tree
+     *  keeps that position's subtree and recycles the rest. */
+    @Test
+    public void testMonteCarloSearch() {
+        Position pos = Corpus.position("middlegame-1");
+        Playout random = new Playout(5);
+        int[] moves = new int[Position.MAX_MOVES];
+        HashSet<Integer> wins = new HashSet<>();
+        while (true) {
+            int n = pos.legalMoves(moves);
+            assertTrue(n > 0);
+            wins.clear();
+            for (int i = 0; i < n; i += 1) {
+                pos.makeMove(moves[i]);
+                if (!pos.canMove(pos.side())) {
+                    wins.add(moves[i]);
+                }
+                pos.undo();
+            }
+            if (!wins.isEmpty() && wins.size() < n) {
+                break;
+            }
+            pos.makeMove(random.randomMove(pos));
+        }
+        MonteCarloSearch search = new MonteCarloSearch(1 << 14, 3);
+        search.setRoot(pos);
+        search.search(20_000, 10_000);
+        assertEquals(1, wins.size());
+        assertTrue(wins.contains(search.bestMove()));
+
+        pos = Corpus.position("middlegame-1");
+        search.setRoot(pos);
+        search.search(5000, 10_000);
+        for (int ply = 0; ply < 2; ply += 1) {
+            int root = search.root(), best = -1;
+            for (int c = search.firstChild(root); c >= 0;
+                 c = search.nextSibling(c)) {
+                if (best < 0 || search.visits(c) > search.visits(best)) {
+                    best = c;
+                }
+            }
+            assertEquals(search.bestMove(), search.move(best));
+            int visits = search.visits(best), size = subtreeSize(search, best);
+            pos.makeMove(search.move(best));
+            search.setRoot(pos);
+            assertEquals(best, search.root());
+            assertEquals(visits, search.rootVisits());
+            assertEquals(size, search.nodeCount());
+        }
+    }
+
+    /** Return the number of nodes in the subtree of SEARCH rooted at
+     *  NODE. */
+    private int subtreeSize(MonteCarloSearch search, int node) {
+        int size = 1;
+        for (int c = search.firstChild(node); c >= 0;
+             c = search.nextSibling(c)) {
+            size += subtreeSize(search, c);
+        }
+        return size;
+    }
+
+    /** Tests that several workers sharing a tree too small for their
+     *  search, with parallel leaf playouts, keep it consistent, also
+     *  once its nodes are recycled: the children of each node have
+     *  distinct legal moves, each node's visits are those of its
+     *  children plus its own playouts, and the best move is legal. */
+    @Test
+    public void testSharedTree() {
+        int leaf = 3;
+        MonteCarloSearch search = new MonteCarloSearch(64, 11, 4, leaf);
+        Position pos = Corpus.position("middlegame-1");
+        for (int k = 0; k < 3; k += 1) {
+            search.setRoot(pos);
+            search.search(2000, 10_000);
+            assertTrue(search.nodeCount() <= 64);
+            checkTree(search, search.root(), new Position(pos), leaf);
+            int best = search.bestMove();
+            assertTrue(pos.isLegal(best));
+            pos.makeMove(best);
+        }
+    }
+
+    /** Check the subtree of SEARCH rooted at NODE, whose position is POS
+     *  and whose leaves were each played out LEAF times, as for
+     *  testSharedTree.  POS is unchanged. */
+    private void checkTree(MonteCarloSearch search, int node, Position pos,
+                           int leaf) {
+        HashSet<Integer> moves = new HashSet<>();
+        int childVisits = 0;
+        for (int c = search.firstChild(node); c >= 0;
+             c = search.nextSibling(c)) {
+            int move = search.move(c);
+            assertTrue(moves.add(move));
+            assertTrue(pos.isLegal(move));
+            childVisits += search.visits(c);
+            pos.makeMove(move);
+            checkTree(search, c, pos, leaf);
+            pos.undo();
+        }
+        int own = search.visits(node) - childVisits;
+        assertTrue(own >= 0);
+        assertEquals(0, own % leaf);
+    }
+
+    /** Tests that DataGen encodes a position and its labels as a record. */
+    @Test
+    public void testDataGenRecord() {
+        Position pos = Tournament.opening(7);
+        int[] moves = new int[Position.MAX_MOVES];
+        pos.legalMoves(moves);
+        ByteBuffer buffer = ByteBuffer.allocate(DataGen.RECORD_SIZE);
+        DataGen.encode(buffer, pos, moves[0], (short) 625, true);
+        assertEquals(DataGen.RECORD_SIZE, buffer.position());
+        for (int s = 0; s < Position.SQUARES; s += 1) {
+            assertEquals(pos.get(s), DataGen.contents(buffer, 0, s));
+        }
+        assertEquals(moves[0], buffer.getInt(DataGen.MOVE));
+        assertEquals(625, buffer.getShort(DataGen.SCORE));
+        assertEquals(pos.side(), buffer.get(DataGen.SIDE));
+        assertEquals(1, buffer.get(DataGen.RESULT));
+    }
+
+    /** Tests that a Tuner, given records of random positions whose
+     *  results are drawn from the logistic model with the default
+     *  weights, lowers the loss and recovers weights of the same signs. */
+    @Test
+    public void testTuner() throws Exception {
+        Path file = Files.createTempFile("tuner", ".bin");
+        Random random = new Random(13);
+        Evaluation eval = new Evaluation();
+        double[] features = new double[Evaluation.FEATURES];
+        ByteBuffer buffer =
+            ByteBuffer.allocate(DataGen.RECORD_SIZE * TUNER_RECORDS);
+        for (int game = 0; buffer.hasRemaining(); game += 1) {
+            Position pos = Tournament.opening(game);
+            Playout playout = new Playout(game);
+            while (pos.winner() == null && buffer.hasRemaining()) {
+                eval.features(pos, features);
+                double z = Evaluation.dot(Evaluation.DEFAULT_WEIGHTS,
+                                          features);
+                boolean won = random.nextDouble() < 1 / (1 + Math.exp(-z));
+                DataGen.encode(buffer, pos, 0, (short) 0, won);
+                pos.makeMove(playout.randomMove(pos));
+            }
+        }
+        Files.write(file, buffer.array());
+        Tuner tuner = new Tuner(List.of(file), 2);
+        assertEquals(TUNER_RECORDS, tuner.records());
+        double[] zero = new double[Evaluation.FEATURES];
+        double[] fitted = tuner.tune(zero, Tuner.DEFAULT_PASSES);
+        assertTrue(tuner.loss(fitted) < tuner.loss(zero));
+        for (int i = 0; i < Evaluation.FEATURES; i += 1) {
+            assertEquals(Math.signum(Evaluation.DEFAULT_WEIGHTS[i]),
+                         Math.signum(fitted[i]), 0);
+        }
+        Files.delete(file);
+    }
+
+    /** Number of records used by testTuner. */
+    private static final int TUNER_RECORDS = 4000;
+
+    /** Tests that evaluation features vanish at the start, change sign
+     *  with the side to move, and weight into scores. */
+    @Test
+    public void testEvaluationFeatures() {
+        Evaluation eval = new Evaluation();
+        double[] features = new double[Evaluation.FEATURES];
+        eval.features(new Position(), features);
+        for (double feature : features) {
+            assertEquals(0, feature, 0);
+        }
+        Position pos = Corpus.position("endgame-1");
+        byte[] cells = new byte[Position.SQUARES];
+        for (int s = 0; s < Position.SQUARES; s += 1) {
+            cells[s] = (byte) pos.get(s);
+        }
+        double[] flipped = new double[Evaluation.FEATURES];
+        eval.features(pos, features);
+        pos.load(cells, 1 - pos.side());
+        eval.features(pos, flipped);
+        for (int i = 0; i < Evaluation.FEATURES; i += 1) {
+            assertEquals(-features[i], flipped[i], 0);
+        }
+        assertEquals(0, new Evaluation(new double[] { 0, 0, 0, 1 })
+                     .score(new Position()));
+    }
+
+    /** Parse random strings, mostly moves, in several threads at once,
+     *  checking the parser against Move.MOVE_PATTERN and checking that
+     *  all threads get the same Move objects. */
+    @Test
+    public void testConcurrentMoveParsing() throws Exception {
+        String[] squares = { "a1", "d4", "j10", "a10", "c7", "j1", "e5",
+                             "k3", "a0", "a11", "A1" };
+        String[] separators = { "-", "(", ")", " ", "  ", "\t", "" };
+        ConcurrentHashMap<String, Move> moves = new ConcurrentHashMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int t = 0; t < 4; t += 1) {
+            final long seed = t;
+            results.add(pool.submit(() -> {
+                Random random = new Random(seed);
+                Matcher matcher = Move.MOVE_PATTERN.matcher("");
+                int parsed = 0;
+                for (int i = 0; i < 50000; i += 1) {
+                    StringBuilder str = new StringBuilder();
+                    boolean dashed = random.nextBoolean();
+                    for (int k = 0; k < 3; k += 1) {
+                        str.append(squares[random.nextInt(random.nextInt(8)
+                                                          == 0 ? 11 : 7)]);
+                        if (random.nextInt(8) == 0) {
+                            str.append(separators[random.nextInt(7)]);
+                        } else if (k < 2) {
+                            str.append(dashed ? (k == 0 ? "-" : "(") : " ");
+                        } else if (dashed) {
+                            str.append(')');
+                        }
+                    }
+                    boolean grammatical = matcher.reset(str).matches();
+                    assertEquals(str.toString(), grammatical,
+                                 Move.isGrammaticalMove(str));
+                    Move move = Move.mv(str);
+                    if (move != null) {
+                        int k = matcher.group(1) != null ? 1 : 4;
+                        assertSame(Move.mv(Square.sq(matcher.group(k)),
+                                           Square.sq(matcher.group(k + 1)),
+                                           Square.sq(matcher.group(k + 2))),
+                                   move);
+                        Move first = moves.putIfAbsent(move.toString(), move);
+                        assertTrue(first == null || first == move);
+                        parsed += 1;
+                    }
+                }
+                return parsed;
+            }));
+        }
+        int parsed = 0;
+        for (Future<Integer> result : results) {
+            parsed += result.get();
+        }
+        pool.shutdown();
+        assertTrue(parsed > 0);
+        assertNotNull(Move.mv("d4-a1(j10)"));
+        assertSame(Move.mv("d4-a1(j10)"), Move.mv("d4 a1 j10"));
+        assertNull(Move.mv("d4-a1(j10"));
+        assertNull(Move.mv("d4-a1 (j10)"));
+    }
+
+    /** Tests Position.isLegal against generated moves, and that a replay
+     *  counts the moves and illegal moves of a script. */
+    @Test
+    public void testReplay() throws Exception {
+        Position pos = Corpus.position("middlegame-1");
+        int[] moves = new int[Position.MAX_MOVES];
+        int n = pos.legalMoves(moves);
+        HashSet<Integer> legal = new HashSet<>();
+        for (int i = 0; i < n; i += 1) {
+            assertTrue(pos.isLegal(moves[i]));
+            legal.add(moves[i]);
+        }
+        for (int move = 0; move < 1 << 21; move += 997) {
+            if (Position.from(move) < Position.SQUARES
+                && Position.to(move) < Position.SQUARES
+                && Position.spear(move) < Position.SQUARES) {
+                assertEquals(legal.contains(move), pos.isLegal(move));
+            }
+        }
+
+        StringBuilder script = new StringBuilder("auto black\n");
+        for (Move move : Corpus.moves("endgame-2")) {
+            script.append(move.toString().toUpperCase()).append("  # ok\n");
+        }
+        script.append("d1-d5(e6)\nnew\r\nd1-d5(e6)\n");
+        Path file = Files.createTempFile("replay", ".txt");
+        Files.write(file, script.toString().getBytes());
+        Replay replay = new Replay();
+        replay.run(file);
+        Files.delete(file);
+        assertEquals(Corpus.moves("endgame-2").length + 1, replay.moves());
+        assertEquals(1, replay.illegal());
+    }
+
+    /** Tests that a game log writes its text and binary records, with and
+     *  without durable writes. */
+    @Test
+    public void testGameLog() throws Exception {
+        Path dir = Files.createTempDirectory("log");
+        Path text = dir.resolve("log"), binary = dir.resolve("log.bin");
+        for (boolean durable : new boolean[] { false, true }) {
+            GameLog log = new GameLog(text, binary, 0, 0, durable);
+            log.command("d1-d5(e6)");
+            log.move(Move.mv("d1-d5(e6)"));
+            log.command("new");
+            log.newGame();
+            log.endGame();
+            log.close();
+            assertEquals(Arrays.asList("d1-d5(e6)", "new"),
+                         Files.readAllLines(text));
+            byte[] record = Files.readAllBytes(binary);
+            assertEquals(5, record.length);
+            assertEquals(GameLog.NEW_GAME, record[0]);
+            assertEquals(Square.sq("d5").index(), record[2]);
+            assertEquals(GameLog.NEW_GAME, record[4]);
+        }
+        Files.delete(text);
+        Files.delete(binary);
+        Files.delete(dir);
+    }
+
+    /** Tests that headless output is written even when Main exits
+     *  directly, as after --bench. */
+    @Test
+    public void testHeadlessBench() throws Exception {
+        Process bench =
+            new ProcessBuilder(Paths.get(System.getProperty("java.home"),
+                                         "bin", "java").toString(),
+                               "-cp", System.getProperty("java.class.path"),
+                               "amazons.Main", "--headless", "--bench")
+            .redirectInput(ProcessBuilder.Redirect.PIPE)
+            .redirectErrorStream(true).start();
+        bench.getOutputStream().close();
+        String output = new String(bench.getInputStream().readAllBytes());
+        assertEquals(0, bench.waitFor());
+        assertTrue(output.contains("Signature"));
+    }
+
+    /** Tests that the benchmark leaves its controller's board, and the
+     *  moves that undo takes back, as they were. */
+    @Test
+    public void testBenchRestoresBoard() {
+        Controller controller =
+            new Controller(new NullView(), null,
+                           new WriterReporter(new PrintWriter(
+                               Writer.nullWriter())),
+                           new TextPlayer(), new AI());
+        Board b = controller.board();
+        b.init();
+        String initial = b.toString();
+        int history = b.numMoves();
+        b.makeMove(Move.mv("d1-d5(e6)"));
+        b.setTurn(BLACK);
+        String before = b.toString();
+        Bench.run(controller, 1);
+        assertEquals(before, b.toString());
+        assertEquals(BLACK, b.turn());
+        assertEquals(history + 1, b.numMoves());
+        b.undo();
+        assertEquals(initial, b.toString());
+        b.init();
+    }
+
+    /** Tests that many concurrent Sessions play and finish their games,
+     *  that a Session reports moves, errors, and dumps in order, and that
+     *  a seeded Session's games are determined by its seed. */
+    @Test
+    public void testSessionHost() throws Exception {
+        SessionHost host = new SessionHost("random", 2);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 50; i += 1) {
+            threads.add(host.start(new BufferedReader(new StringReader(
+                "seed 3\nauto white\nnew\nquit\nd1-d5(e6)\n")),
+                                   new WriterReporter(new PrintWriter(
+                                       Writer.nullWriter()))));
+        }
+        StringWriter out = new StringWriter();
+        threads.add(host.start(new BufferedReader(new StringReader(
+            "d1-d5(e6)\nd1-d5(e6)\nbogus\ndump\n")),
+                               new WriterReporter(new PrintWriter(out))));
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        host.shutdown();
+        assertEquals(0, host.active());
+        assertEquals(100, host.finished());
+        String[] lines = out.toString().split("\n");
+        assertTrue(lines[0].startsWith("* "));
+        assertEquals("Error: Invalid move!", lines[1]);
+        assertEquals("Error: Bad command: bogus", lines[2]);
+        assertEquals("===", lines[3]);
+        assertEquals("===", lines[lines.length - 1]);
+        host = new SessionHost("mcts:100", 1);
+        String game = sessionOutput(host, "seed 7\nauto white\nquit\n");
+        assertEquals(game,
+                     sessionOutput(host, "seed 7\nauto white\nquit\n"));
+        assertTrue(!game.equals(sessionOutput(host,
+                                              "seed 8\nauto white\n")));
+        host.shutdown();
+    }
+
+    /** Return the output of a Session of HOST given the commands
+     *  INPUT. */
+    private static String sessionOutput(SessionHost host, String input)
+        throws InterruptedException {
+        StringWriter out = new StringWriter();
+        host.start(new BufferedReader(new StringReader(input)),
+                   new WriterReporter(new PrintWriter(out))).join();
+        return out.toString();
+    }
+
+    /** Tests that a Server plays over TCP and serves a load of many
+     *  concurrent clients without errors. */
+    @Test
+    public void testServer() throws Exception {
+        SessionHost host = new SessionHost("random", 1);
+        Server server = new Server(0, host);
+        Thread thread = new Thread(() -> {
+            try {
+                server.run();
+            } catch (IOException excp) {
+                throw new IllegalStateException(excp);
+            }
+        });
+        thread.start();
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                                        server.port())) {
+            socket.getOutputStream().write("d1-d5(e6)\nbogus\nquit\n"
+                                           .getBytes());
+            BufferedReader in = new BufferedReader(
+                new InputStreamReader(socket.getInputStream()));
+            assertTrue(in.readLine().startsWith("* "));
+            assertEquals("Error: Bad command: bogus", in.readLine());
+            assertNull(in.readLine());
+        }
+        LoadClient load = new LoadClient(server.port(), 20);
+        load.run(500);
+        server.stop();
+        thread.join();
+        host.shutdown();
+        assertEquals(20, load.connected());
+        assertTrue(load.replies() > 20);
+        assertEquals(0, load.errors());
+        assertEquals(21, server.accepted());
+        assertEquals(0, host.active());
+    }
+
+    /** Tests that the engine protocol sets up positions, ponders until
+     *  ponderhit, gives a legal best move, and rejects illegal moves. */
+    @Test
+    public void testProtocol() throws Exception {
+        Board b = new Board();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Protocol protocol =
+            new Protocol(b, new AI(), new PrintStream(bytes, true));
+        protocol.execute("isready");
+        protocol.execute("position startpos moves d1-d5(e6) g10-g6(d3)");
+        assertEquals(WHITE, b.turn());
+        assertEquals(SPEAR, b.get(Square.sq("d3")));
+        protocol.execute("go ponder depth 1");
+        while (!bytes.toString().contains("info depth 1")) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertFalse(bytes.toString().contains("bestmove"));
+        protocol.execute("ponderhit");
+        protocol.finish();
+        String[] lines = bytes.toString().split("\n");
+        assertEquals("readyok", lines[0]);
+        assertTrue(lines[1].startsWith("info depth 1 score "));
+        assertTrue(lines[2].startsWith("bestmove "));
+        Move best = Move.mv(lines[2].substring("bestmove ".length()));
+        assertTrue(new Position(b).isLegal(Position.pack(best)));
+        boolean rejected = false;
+        try {
+            protocol.execute("position d1-d9");
+        } catch (IllegalArgumentException excp) {
+            rejected = true;
+        }
+        assertTrue(rejected);
+        assertFalse(protocol.execute("quit"));
+        b.init();
+    }
+
+    /** Tests that searches stop at their deadlines or on request, with a
+     *  legal move and the board unchanged. */
+    @Test
+    public void testStopSearch() throws Exception {
+        Board b = new Board();
+        b.makeMove(Move.mv("d1-d5(e6)"));
+        b.setTurn(BLACK);
+        String before = b.toString();
+        AI ai = new AI();
+        ai.resetSearch();
+        ai.setDeadline(System.nanoTime() + 200_000_000L);
+        long start = System.nanoTime();
+        List<Integer> depths = new ArrayList<>();
+        Move best = ai.analyze(b, Protocol.MAX_DEPTH,
+                               (depth, score, nodes, nanos, move) ->
+                               depths.add(depth));
+        assertTrue(System.nanoTime() - start < 5_000_000_000L);
+        assertEquals(before, b.toString());
+        assertFalse(depths.isEmpty());
+        assertTrue(depths.size() < Protocol.MAX_DEPTH);
+        assertTrue(new Position(b).isLegal(Position.pack(best)));
+
+        ai.resetSearch();
+        ai.stopSearch();
+        best = ai.analyze(b, Protocol.MAX_DEPTH,
+                          (depth, score, nodes, nanos, move) -> { });
+        assertEquals(before, b.toString());
+        assertTrue(new Position(b).isLegal(Position.pack(best)));
+        b.init();
+    }
+
+    /** Tests that a request to stop choosing made before chooseMove
+     *  starts is not lost. */
+    @Test
+    public void testStopBeforeChoosing() {
+        StringWriter notes = new StringWriter();
+        Controller controller =
+            new Controller(new NullView(), null,
+                           new WriterReporter(new PrintWriter(notes)),
+                           new TextPlayer(), new AI());
+        Board b = controller.board();
+        b.init();
+        for (Player template : new Player[] {
+                new AI(), new MonteCarloAI(1, 1) }) {
+            MoveChooser chooser =
+                (MoveChooser) template.create(WHITE, controller);
+            chooser.resetChoosing();
+            chooser.stopChoosing();
+            long start = System.nanoTime();
+            Move move = chooser.chooseMove();
+            assertTrue(System.nanoTime() - start < 1_000_000_000L);
+            assertTrue(move != null
+                       && new Position(b).isLegal(Position.pack(move)));
+        }
+        b.init();
+    }
+
+    /** Tests that symmetric positions share canonical keys, and that
+     *  moves translate between them. */
+    @Test
+    public void testSymmetricKeys() {
+        Piece[] pieces = new Piece[] {EMPTY, WHITE, BLACK, SPEAR};
+        int move = Position.pack(Move.mv("d1-d5(e6)"));
+        Position p = new Position();
+        long key = p.hash();
+        p.makeMove(move);
+        p.makeMove(Position.pack(Move.mv("g10-g4(h4)")));
+        Board b = new Board();
+        for (int t = 0; t < Symmetry.COUNT; t += 1) {
+            for (int s = 0; s < Position.SQUARES; s += 1) {
+                b.put(pieces[p.get(s)], Square.sq(Symmetry.square(t, s)));
+            }
+            Position q = new Position(b);
+            assertEquals(p.hash(t), q.hash());
+            assertEquals(p.canonicalHash(), q.canonicalHash());
+            assertEquals(move, Symmetry.move(Symmetry.inverse(t),
+                                             Symmetry.move(t, move)));
+        }
+        p.undo();
+        p.undo();
+        assertEquals(key, p.hash());
+        b.init();
+    }
+
+    /** Tests that a book built from the initial position holds a
+     *  position after its first move, and gives each symmetric image of
+     *  that position the correspondingly transformed legal move. */
+    @Test
+    public void testOpeningBook() throws Exception {
+        Path file = Files.createTempFile("book", ".bin");
+        OpeningBook.build(file, 2, 2, 300, 1);
+        OpeningBook book = new OpeningBook(file);
+        Files.delete(file);
+        assertTrue(book.size() >= 2);
+        Position pos = new Position();
+        int first = book.move(pos);
+        assertTrue(pos.isLegal(first));
+        pos.makeMove(first);
+        int move = book.move(pos);
+        assertTrue(pos.isLegal(move));
+        for (int t = 0; t < Symmetry.COUNT; t += 1) {
+            byte[] cells = new byte[Position.SQUARES];
+            for (int s = 0; s < Position.SQUARES; s += 1) {
+                cells[Symmetry.square(t, s)] = (byte) pos.get(s);
+            }
+            Position image = new Position();
+            image.load(cells, pos.side());
+            int imageMove = book.move(image);
+            assertEquals(Symmetry.move(t, move), imageMove);
+            assertTrue(image.isLegal(imageMove));
+            assertEquals(book.score(pos), book.score(image));
+        }
+        assertEquals(-1, book.move(Corpus.position("endgame-1")));
+    }
+
+    /** Tests that an analysis cache keeps results from one opening to
+     *  the next, including for symmetric positions. */
+    @Test
+    public void testAnalysisCache() throws Exception {
+        Path dir = Files.createTempDirectory("cache");
+        String name = dir.resolve("cache").toString();
+        int move = Position.pack(Move.mv("d1-d5(e6)")),
+            reply = Position.pack(Move.mv("g10-g4(h4)"));
+        Position p = new Position();
+        AnalysisCache cache = new AnalysisCache(Paths.get(name));
+        cache.store(p, 2, 17, move);
+        assertEquals(move, cache.move(p, 2));
+        cache.close();
+        for (int run = 0; run < 2; run += 1) {
+            cache = new AnalysisCache(Paths.get(name));
+            while (!cache.loaded()) {
+                Thread.sleep(1);
+            }
+            assertEquals(move, cache.move(p, 1));
+            assertEquals(-1, cache.move(p, 3));
+            p.makeMove(Symmetry.move(1, move));
+            if (run == 0) {
+                cache.store(p, 1, 0, reply);
+            } else {
+                assertEquals(reply, cache.move(p, 1));
+            }
+            p.undo();
+            p.makeMove(move);
+            if (run == 1) {
+                assertEquals(Symmetry.move(1, reply), cache.move(p, 1));
+            }
+            p.undo();
+            cache.close();
+        }
+    }
+
+    /** Tests that a MonteCarloAI keeps the subtree it pondered below the
+     *  reply actually played, and chooses its move from it.  (A stopped
+     *  search still runs one iteration.) */
+    @Test
+    public void testMonteCarloPondering() throws Exception {
+        Controller controller =
+            new Controller(new NullView(), null,
+                           new WriterReporter(new PrintWriter(
+                               Writer.nullWriter())),
+                           new TextPlayer(), new AI());
+        Board b = controller.board();
+        b.init();
+        MonteCarloAI ai =
+            (MonteCarloAI) new MonteCarloAI(1, 1).create(BLACK, controller);
+        ai.startPondering(new Position(b));
+        Thread.sleep(200);
+        ai.stopPondering();
+        MonteCarloSearch search = ai.search();
+        int reply = search.bestMove();
+        int node = search.firstChild(search.root());
+        while (search.move(node) != reply) {
+            node = search.nextSibling(node);
+        }
+        long visits = search.visits(node);
+        assertTrue(visits > 1);
+        b.makeMove(Position.toMove(reply));
+        b.setTurn(BLACK);
+        ai.resetChoosing();
+        ai.stopChoosing();
+        Move move = ai.chooseMove();
+        assertEquals(visits + 1, search.rootVisits());
+        assertNotNull(move);
+        b.undo();
+        b.init();
+    }
+
+    /** Tests that a proof search recognizes a trapped side as lost. */
+    @Test
+    public void testProofSearchTrapped() {
+        Board b = new Board();
+        String[] walls = new String[] {"a5", "b5", "b4", "b3", "a2", "b2"};
+        for (String s : walls) {
+            b.put(SPEAR, Square.sq(s));
+        }
+        b.put(EMPTY, Square.sq("d1"));
+        b.put(EMPTY, Square.sq("g1"));
+        b.put(EMPTY, Square.sq("j4"));
+        ProofSearch proof = new ProofSearch(10, 1000);
+        Position p = new Position(b);
+        assertEquals(ProofSearch.UNKNOWN, proof.result(p));
+        b.put(SPEAR, Square.sq("a3"));
+        p = new Position(b);
+        assertEquals(ProofSearch.LOSS, proof.prove(p));
+        b.init();
+    }
+
+    /** Tests that a proof search proves a short forced win in an endgame
+     *  only when its node budget allows, and that the win can then be
+     *  followed to the end of the game, against any replies, without
+     *  searching again. */
+    @Test
+    public void testProofSearchForcedWin() {
+        Position pos = Corpus.position("endgame-1");
+        Playout random = new Playout(5);
+        for (int k = 0; k < 9; k += 1) {
+            pos.makeMove(random.randomMove(pos));
+        }
+        assertEquals(ProofSearch.UNKNOWN,
+                     new ProofSearch(16, 100).prove(pos));
+        ProofSearch proof = new ProofSearch(16, 100000);
+        assertEquals(ProofSearch.WIN, proof.prove(pos));
+        long nodes = proof.nodes();
+        int winner = pos.side();
+        int[] moves = new int[Position.MAX_MOVES];
+        int plies = 0;
+        while (pos.winner() == null) {
+            if (pos.side() == winner) {
+                assertEquals(ProofSearch.WIN, proof.result(pos));
+                int move = proof.winningMove(pos);
+                assertTrue(pos.isLegal(move));
+                pos.makeMove(move);
+            } else {
+                int n = pos.legalMoves(moves);
+                for (int i = 0; i < n; i += 1) {
+                    pos.makeMove(moves[i]);
+                    assertEquals(ProofSearch.WIN, proof.result(pos));
+                    pos.undo();
+                }
+                pos.makeMove(random.randomMove(pos));
+            }
+            plies += 1;
+        }
+        assertTrue(plies > 1);
+        assertEquals(winner == 0 ? Piece.WHITE : Piece.BLACK, pos.winner());
+        assertEquals(nodes, proof.nodes());
+    }
+
+}
@@ -0,0 +1,49 @@
+package amazons;
+
+import java.io.PrintWriter;
+
+/** A Reporter that writes all messages, errors included, to one
+ *  PrintWriter, in the same forms as a TextReporter, flushing after
+ *  each.  Suited to a Session whose user is at the other end of a pipe
+ *  or connection.
+ *  @author Sasha Manghise
+ */
+class WriterReporter implements Reporter {
+
+    /** A reporter writing to OUT. */
+    WriterReporter(PrintWriter out) {
+        _out = out;
+    }
+
+    @Override
+    public void reportError(String fmt, Object... args) {
+        _out.print("Error: ");
+        _out.printf(fmt, args);
+        _out.println();
+        _out.flush();
+    }
+
+    @Override
+    public void reportNote(String fmt, Object... args) {
+        _out.print("* ");
+        _out.printf(fmt, args);
+        _out.println();
+        _out.flush();
+    }
+
+    @Override
+    public void reportMove(Move move) {
+        _out.print("* ");
+        _out.println(move);
+        _out.flush();
+    }
+
+    @Override
+    public void reportText(String text) {
+        _out.print(text);
+        _out.flush();
+    }
+
+    /** Destination of messages. */
+    private final PrintWriter _out;
+}
@@ -0,0 +1,110 @@
+package amazons;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Benchmarks of the Board operations used by move generation and
+ *  search, on each position of the Corpus.  A Board keeps its contents
+ *  in the shared Squares, so these run in a single thread.
+ *  @author Sasha Manghise
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class BoardBench {
+
+    /** Name of the Corpus position to measure. */
+    @Param({ "opening-1", "opening-2", "middlegame-1", "middlegame-2",
+             "endgame-1", "endgame-2" })
+    public String position;
+
+    /** Set up the board and the moves to use. */
+    @Setup
+    public void setUp() {
+        _board = new Board();
+        Corpus.setUp(_board, position);
+        _moves.clear();
+        Iterator<Move> moves = _board.legalMoves();
+        while (moves.hasNext()) {
+            Move move = moves.next();
+            if (move == null) {
+                break;
+            }
+            _moves.add(move);
+        }
+        _queens = new ArrayList<>(_board.turn() == Piece.WHITE
+                                  ? _board.getWhiteQueens()
+                                  : _board.getBlackQueens());
+    }
+
+    /** Enumerate all legal moves. */
+    @Benchmark
+    public void legalMoves(Blackhole sink) {
+        Iterator<Move> moves = _board.legalMoves();
+        while (moves.hasNext()) {
+            sink.consume(moves.next());
+        }
+    }
+
+    /** Enumerate the squares reachable from each queen of the side to
+     *  move. */
+    @Benchmark
+    public void reachableFrom(Blackhole sink) {
+        for (Square queen : _queens) {
+            Iterator<Square> squares = _board.reachableFrom(queen, null);
+            while (squares.hasNext()) {
+                sink.consume(squares.next());
+            }
+        }
+    }
+
+    /** Make and undo a legal move. */
+    @Benchmark
+    public void makeMoveUndo() {
+        _board.makeMove(_moves.get(0));
+        _board.undo();
+    }
+
+    /** Check the legality of every legal move. */
+    @Benchmark
+    public void isLegal(Blackhole sink) {
+        for (Move move : _moves) {
+            sink.consume(_board.isLegal(move));
+        }
+    }
+
+    /** Determine the winner. */
+    @Benchmark
+    public Piece winner() {
+        return _board.winner();
+    }
+
+    /** The board, set to the position being measured. */
+    private Board _board;
+
+    /** The legal moves in the position. */
+    private final List<Move> _moves = new ArrayList<>();
+
+    /** The squares of the queens of the side to move. */
+    private List<Square> _queens;
+}
@@ -0,0 +1,71 @@
+package amazons;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of the AI's static evaluation and fixed-depth search on
+ *  each position of the Corpus.
+ *  @author Sasha Manghise
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class SearchBench {
+
+    /** Name of the Corpus position to measure. */
+    @Param({ "opening-1", "middlegame-1", "endgame-1" })
+    public String position;
+
+    /** Set up the board and an AI to play from it. */
+    @Setup
+    public void setUp() {
+        Controller controller =
+            new Controller(new NullView(), null, new TextReporter(),
+                           new TextPlayer(), new AI());
+        _board = controller.board();
+        Corpus.setUp(_board, position);
+        _ai = (AI) new AI().create(_board.turn(), controller);
+    }
+
+    /** Evaluate the position statically. */
+    @Benchmark
+    public int staticScore() {
+        return _ai.staticScore(_board);
+    }
+
+    /** Search the position to a fixed depth. */
+    @Benchmark
+    public Move findMove(Depth depth) {
+        return _ai.findMove(new Board(_board), depth.plies);
+    }
+
+    /** The search depth, which applies only to findMove. */
+    @State(Scope.Benchmark)
+    public static class Depth {
+        /** Depth of search, in plies. */
+        @Param({ "1", "2" })
+        public int plies;
+    }
+
+    /** The board, set to the position being measured. */
+    private Board _board;
+
+    /** The AI searching _board. */
+    private AI _ai;
+}